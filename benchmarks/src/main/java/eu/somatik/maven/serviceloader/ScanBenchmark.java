@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Measures each stage of the bytecode scan separately on a generated project, see
+ * {@link SyntheticProject}. Run with <code>java -jar target/benchmarks.jar</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int classCount;
+
+    private SyntheticProject project;
+    private ServiceloaderMojo mojo;
+    private ClassNameFilter filter;
+    private Map<String, List<String>> implementations;
+    private Map<String, List<String>> changedImplementations;
+    private boolean changed;
+
+    @Setup
+    public void setUp() throws IOException, IllegalAccessException, MojoExecutionException {
+        project = SyntheticProject.generate(classCount);
+        mojo = new ServiceloaderMojo();
+        mojo.setLog(new QuietLog());
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", project.serviceNames.toArray(new String[0]));
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.singletonList(project.jar.getAbsolutePath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", project.classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(project.directory, "services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", ServiceloaderMojo.SCAN_MODE_BYTECODE);
+
+        filter = ClassNameFilter.compile(new String[]{"bench.impl.p1*", "bench.impl.p2?.Impl*"}, new String[]{"*.Impl*5", "*$*"});
+        implementations = findImplementations();
+        changedImplementations = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : implementations.entrySet()) {
+            List<String> classNames = new ArrayList<String>(entry.getValue());
+            if (!classNames.isEmpty()) {
+                classNames.remove(0);
+            }
+            changedImplementations.put(entry.getKey(), classNames);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        project.delete();
+    }
+
+    @Benchmark
+    public List<String> listCompiledClasses() throws MojoExecutionException {
+        return mojo.listCompiledClasses(project.classFolder);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> findImplementations() throws MojoExecutionException, IOException {
+        ClassHierarchy hierarchy = new ClassHierarchy(project.classFolder, mojo.getCompileClasspath(), null);
+        try {
+            return mojo.findImplementations(hierarchy, project.serviceNames);
+        } finally {
+            hierarchy.close();
+        }
+    }
+
+    @Benchmark
+    public int filter() {
+        int accepted = 0;
+        for (String className : project.classNames) {
+            if (filter.accepts(className)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * A rebuild that produces the same service files
+     */
+    @Benchmark
+    public void writeUnchangedServiceFiles() throws MojoExecutionException {
+        mojo.writeServiceFiles(implementations);
+    }
+
+    /**
+     * A rebuild where every service file changes
+     */
+    @Benchmark
+    public void writeChangedServiceFiles() throws MojoExecutionException {
+        changed = !changed;
+        mojo.writeServiceFiles(changed ? changedImplementations : implementations);
+    }
+
+    /**
+     * Drops the info output, writing every implementation to the console would dominate the results
+     */
+    private static final class QuietLog extends SystemStreamLog {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates a class folder and a dependency jar with class files only, no code or members. The
+ * jar holds the service interfaces and a chain of abstract base classes, the class folder holds
+ * the classes to scan: each extends one of the base classes and implements one of the services.
+ * Every tenth class is abstract and so is not an implementation.
+ */
+final class SyntheticProject {
+
+    static final int SERVICES = 20;
+    static final int HIERARCHY_DEPTH = 8;
+    static final int CLASSES_PER_PACKAGE = 100;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    final File directory;
+    final File classFolder;
+    final File jar;
+    final List<String> serviceNames = new ArrayList<String>();
+    final List<String> classNames = new ArrayList<String>();
+
+    private SyntheticProject(File directory) {
+        this.directory = directory;
+        this.classFolder = new File(directory, "classes");
+        this.jar = new File(directory, "dependency.jar");
+    }
+
+    /**
+     * @param classCount the number of classes in the class folder
+     * @return the generated project in a new temporary directory
+     */
+    static SyntheticProject generate(int classCount) throws IOException {
+        SyntheticProject project = new SyntheticProject(Files.createTempDirectory("serviceloader-benchmark").toFile());
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(project.jar));
+        try {
+            for (int i = 0; i < SERVICES; i++) {
+                String service = "bench.spi.Service" + i;
+                project.serviceNames.add(service);
+                addEntry(out, service, classFile(service, ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, "java.lang.Object"));
+            }
+            String superName = "java.lang.Object";
+            for (int i = 0; i < HIERARCHY_DEPTH; i++) {
+                // every level of the chain brings in another service
+                String base = "bench.base.Base" + i;
+                addEntry(out, base, classFile(base, ACC_PUBLIC | ACC_SUPER | ACC_ABSTRACT, superName,
+                        project.serviceNames.get(i % SERVICES)));
+                superName = base;
+            }
+        } finally {
+            out.close();
+        }
+        for (int i = 0; i < classCount; i++) {
+            String className = "bench.impl.p" + (i / CLASSES_PER_PACKAGE) + ".Impl" + i;
+            int access = ACC_PUBLIC | ACC_SUPER | (i % 10 == 9 ? ACC_ABSTRACT : 0);
+            File file = new File(project.classFolder, className.replace('.', File.separatorChar) + ".class");
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), classFile(className, access, "bench.base.Base" + (i % HIERARCHY_DEPTH),
+                    project.serviceNames.get((i * 7) % SERVICES)));
+            project.classNames.add(className);
+        }
+        Collections.sort(project.classNames);
+        return project;
+    }
+
+    void delete() throws IOException {
+        delete(directory);
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static void addEntry(JarOutputStream out, String className, byte[] classFile) throws IOException {
+        out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+        out.write(classFile);
+        out.closeEntry();
+    }
+
+    /**
+     * A Java 8 class file with a constant pool that only holds the class names
+     */
+    private static byte[] classFile(String className, int access, String superName, String... interfaces) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        out.writeShort(1 + 2 * (2 + interfaces.length));
+        writeClassConstant(out, className, 1);
+        writeClassConstant(out, superName, 3);
+        for (int i = 0; i < interfaces.length; i++) {
+            writeClassConstant(out, interfaces[i], 5 + 2 * i);
+        }
+        out.writeShort(access);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(interfaces.length);
+        for (int i = 0; i < interfaces.length; i++) {
+            out.writeShort(6 + 2 * i);
+        }
+        // no fields, methods or attributes
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the name as a Utf8 constant at nameIndex followed by the Class constant pointing to it
+     */
+    private static void writeClassConstant(DataOutputStream out, String className, int nameIndex) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(className.replace('.', '/'));
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+}
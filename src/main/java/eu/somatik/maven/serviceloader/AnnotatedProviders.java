@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Finds the services a class is marked a provider of with one of the providerAnnotations, the
+ * services in the <code>value</code> element of the annotation. They are read together with the
+ * class header, only the classes of a jar index have their annotations read again, when the header
+ * lists one of the annotation types. The supertypes are only resolved for annotated classes, to
+ * verify they implement the services.
+ */
+final class AnnotatedProviders {
+
+    private static final String SERVICES_ELEMENT = "value";
+    private static final String[] NONE = new String[0];
+
+    /**
+     * Answers whether a class implements a service when its hierarchy is not fully available as
+     * bytecode
+     */
+    interface Fallback {
+        boolean isAssignable(String serviceName, String className) throws MojoExecutionException;
+    }
+
+    private final List<String> annotationTypes;
+    private final ProviderValidation validation;
+    private final Fallback fallback;
+
+    /**
+     * @param annotationTypes the binary names of the provider annotations
+     * @param validation applied to every annotated class
+     * @param fallback checks classes with a supertype that can not be resolved
+     */
+    AnnotatedProviders(String[] annotationTypes, ProviderValidation validation, Fallback fallback) {
+        this.annotationTypes = Arrays.asList(annotationTypes);
+        this.validation = validation;
+        this.fallback = fallback;
+    }
+
+    /**
+     * @param hierarchy the class hierarchy
+     * @param info the class
+     * @return the services the class is to be registered for, empty when it is not annotated or
+     *         excluded by the providerValidation
+     * @throws IOException if the class or its supertypes can not be read
+     * @throws MojoExecutionException if an annotated class is not a provider of its service
+     */
+    String[] find(ClassHierarchy hierarchy, ClassInfo info) throws IOException, MojoExecutionException {
+        String[] services = info.getProvidedServices();
+        if (services == null) {
+            services = readServices(hierarchy, info);
+        }
+        if (services.length == 0) {
+            return NONE;
+        }
+        Set<String> supertypes = info.isConcretePublicClass() ? hierarchy.getSupertypes(info) : Collections.<String>emptySet();
+        List<String> provided = new ArrayList<String>(services.length);
+        for (String serviceName : services) {
+            if (!provided.contains(serviceName) && isProvider(hierarchy, info, supertypes, serviceName)) {
+                provided.add(serviceName);
+            }
+        }
+        return provided.toArray(new String[provided.size()]);
+    }
+
+    /**
+     * Reads the services from the annotations of a class that was not parsed with them, only when
+     * its header lists one of the annotation types
+     */
+    private String[] readServices(ClassHierarchy hierarchy, ClassInfo info) throws IOException {
+        boolean annotated = false;
+        for (String annotationType : info.getAnnotationTypes()) {
+            annotated |= annotationTypes.contains(annotationType);
+        }
+        if (!annotated) {
+            return NONE;
+        }
+        List<String> services = new ArrayList<String>();
+        for (AnnotationInfo annotation : hierarchy.readAnnotations(info.getName(), annotationTypes)) {
+            if (annotationTypes.contains(annotation.getType())) {
+                services.addAll(annotation.get(SERVICES_ELEMENT));
+            }
+        }
+        return services.toArray(new String[services.size()]);
+    }
+
+    /**
+     * Verifies an annotated class can be registered for the service it declares
+     *
+     * @return false if the class is excluded by the providerValidation
+     * @throws MojoExecutionException if the class is not a public concrete implementation of the service
+     */
+    private boolean isProvider(ClassHierarchy hierarchy, ClassInfo info, Set<String> supertypes, String serviceName)
+            throws MojoExecutionException {
+        String className = info.getName();
+        if (!info.isConcretePublicClass()) {
+            throw new MojoExecutionException(className + " is annotated as a provider of " + serviceName
+                    + " but is not a public concrete class");
+        }
+        if (!supertypes.contains(serviceName)
+                && (hierarchy.isComplete(supertypes) || !fallback.isAssignable(serviceName, className))) {
+            throw new MojoExecutionException(className + " is annotated as a provider of " + serviceName
+                    + " but does not implement it");
+        }
+        return validation.accept(info);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class level annotation as found in the class file, with its element values as strings.
+ * Elements that use their default value are not part of the class file and so not listed.
+ */
+final class AnnotationInfo {
+
+    private final String type;
+    private final Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+
+    AnnotationInfo(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the binary name of the annotation type
+     */
+    String getType() {
+        return type;
+    }
+
+    void put(String element, List<String> elementValues) {
+        values.put(element, elementValues);
+    }
+
+    /**
+     * @return the element values by element name, an array element has one value per item
+     */
+    Map<String, List<String>> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @param element the element name
+     * @return the values of the element, empty when it is not in the class file
+     */
+    List<String> get(String element) {
+        List<String> elementValues = values.get(element);
+        return elementValues == null ? Collections.<String>emptyList() : elementValues;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + type + values;
+    }
+}
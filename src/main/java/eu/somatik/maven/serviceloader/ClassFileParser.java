@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal class file reader that extracts the access flags, super class and interfaces straight
+ * from the constant pool, so classes never have to be loaded to be inspected. The types of the
+ * class level annotations are part of the header, they select wildcard services and provider
+ * annotations. The element values are read separately, only when needed, except for the services
+ * of the provider annotations, which are read in the same pass.
+ *
+ * See chapter 4 of the Java Virtual Machine Specification for the format.
+ */
+final class ClassFileParser {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final String[] NONE = new String[0];
+    private static final String SERVICES_ELEMENT = "value";
+    private static final String PRIMITIVE_DESCRIPTORS = "BCDFIJSZV";
+    private static final String[] PRIMITIVE_NAMES = {
+            "byte", "char", "double", "float", "int", "long", "short", "boolean", "void"};
+
+    private ClassFileParser() {
+    }
+
+    /**
+     * Parses a class file. The stream is not closed.
+     *
+     * @param in the class file contents
+     * @return the parsed header
+     * @throws IOException if the stream can not be read or is not a valid class file
+     */
+    static ClassInfo parse(InputStream in) throws IOException {
+        return parse(in, null);
+    }
+
+    /**
+     * Parses a class file together with the services named in the <code>value</code> element of
+     * the provider annotations. An annotation type is always in the constant pool of the classes it
+     * annotates, so only classes referencing one of them have the values read. The stream is not
+     * closed.
+     *
+     * @param in the class file contents
+     * @param providerAnnotations the binary names of the provider annotations, <code>null</code> to
+     *                            leave the provided services unknown
+     * @return the parsed header
+     * @throws IOException if the stream can not be read or is not a valid class file
+     */
+    static ClassInfo parse(InputStream in, Collection<String> providerAnnotations) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor
+        data.readUnsignedShort(); // major
+
+        int poolSize = data.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        int[] classNameIndex = new int[poolSize];
+        readConstantPool(data, utf8, classNameIndex, null);
+        Collection<String> referenced = providerAnnotations != null && referencesAny(utf8, providerAnnotations)
+                ? providerAnnotations : null;
+
+        int accessFlags = data.readUnsignedShort();
+        int thisClass = data.readUnsignedShort();
+        int superClass = data.readUnsignedShort();
+        String name = className(utf8, classNameIndex, thisClass);
+        String superName = superClass == 0 ? null : className(utf8, classNameIndex, superClass);
+        String[] interfaces = new String[data.readUnsignedShort()];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = className(utf8, classNameIndex, data.readUnsignedShort());
+        }
+
+        skipMembers(data); // fields
+        int factories = readFactories(data, utf8);
+
+        boolean anonymous = false;
+        List<String> annotationTypes = null;
+        List<String> providedServices = null;
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = utf8[data.readUnsignedShort()];
+            int length = data.readInt();
+            if ("InnerClasses".equals(attributeName)) {
+                int classes = data.readUnsignedShort();
+                for (int j = 0; j < classes; j++) {
+                    int innerClass = data.readUnsignedShort();
+                    data.readUnsignedShort(); // outer class
+                    int innerName = data.readUnsignedShort();
+                    int innerFlags = data.readUnsignedShort();
+                    if (innerClass == thisClass) {
+                        // nested classes have their declared modifiers here, the class level flags
+                        // turn protected into public and private into package access
+                        accessFlags = innerFlags;
+                        anonymous = innerName == 0;
+                    }
+                }
+            } else if ("RuntimeVisibleAnnotations".equals(attributeName) || "RuntimeInvisibleAnnotations".equals(attributeName)) {
+                if (annotationTypes == null) {
+                    annotationTypes = new ArrayList<String>();
+                }
+                if (referenced != null && providedServices == null) {
+                    providedServices = new ArrayList<String>();
+                }
+                int count = data.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    annotationTypes.add(readProviderAnnotation(data, utf8, referenced, providedServices));
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+        return new ClassInfo(name, accessFlags, superName, interfaces, anonymous, factories,
+                annotationTypes == null ? NONE : annotationTypes.toArray(new String[annotationTypes.size()]),
+                providerAnnotations == null ? null
+                        : providedServices == null ? NONE : providedServices.toArray(new String[providedServices.size()]));
+    }
+
+    /**
+     * Reads the class level annotations, both the runtime visible and the class file only ones.
+     * The stream is not closed.
+     *
+     * @param in the class file contents
+     * @return the annotations in the order of the class file
+     * @throws IOException if the stream can not be read or is not a valid class file
+     */
+    static List<AnnotationInfo> parseAnnotations(InputStream in) throws IOException {
+        return parseAnnotations(in, null);
+    }
+
+    /**
+     * Reads the class level annotations when the class can carry one of the given annotation types.
+     * An annotation type is always in the constant pool of the classes it annotates, so classes
+     * without any of them are left after the constant pool. The stream is not closed.
+     *
+     * @param in the class file contents
+     * @param types the binary names of the annotation types, <code>null</code> for all annotations
+     * @return the annotations in the order of the class file, empty when none of the types is referenced
+     * @throws IOException if the stream can not be read or is not a valid class file
+     */
+    static List<AnnotationInfo> parseAnnotations(InputStream in, Collection<String> types) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor
+        data.readUnsignedShort(); // major
+
+        int poolSize = data.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        Object[] values = new Object[poolSize];
+        readConstantPool(data, utf8, new int[poolSize], values);
+        if (types != null && !referencesAny(utf8, types)) {
+            return Collections.emptyList();
+        }
+
+        skipFully(data, 6); // access flags, this class, super class
+        skipFully(data, 2 * data.readUnsignedShort()); // interfaces
+        skipMembers(data); // fields
+        skipMembers(data); // methods
+
+        List<AnnotationInfo> annotations = new ArrayList<AnnotationInfo>();
+        int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = utf8[data.readUnsignedShort()];
+            int length = data.readInt();
+            if ("RuntimeVisibleAnnotations".equals(attributeName) || "RuntimeInvisibleAnnotations".equals(attributeName)) {
+                int count = data.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    annotations.add(readAnnotation(data, utf8, values));
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+        return annotations;
+    }
+
+    private static boolean referencesAny(String[] utf8, Collection<String> types) {
+        Set<String> descriptors = new HashSet<String>();
+        for (String type : types) {
+            descriptors.add('L' + type.replace('.', '/') + ';');
+        }
+        for (String value : utf8) {
+            if (value != null && descriptors.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the constant pool, keeping the strings, the class references and optionally the
+     * numeric constants
+     *
+     * @param values receives the numeric constants, <code>null</code> to skip them
+     */
+    private static void readConstantPool(DataInputStream data, String[] utf8, int[] classNameIndex, Object[] values)
+            throws IOException {
+        for (int i = 1; i < utf8.length; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    utf8[i] = data.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex[i] = data.readUnsignedShort();
+                    break;
+                case CONSTANT_INTEGER:
+                    if (values == null) {
+                        skipFully(data, 4);
+                    } else {
+                        values[i] = data.readInt();
+                    }
+                    break;
+                case CONSTANT_FLOAT:
+                    if (values == null) {
+                        skipFully(data, 4);
+                    } else {
+                        values[i] = data.readFloat();
+                    }
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    if (values == null) {
+                        skipFully(data, 8);
+                    } else if (tag == CONSTANT_LONG) {
+                        values[i] = data.readLong();
+                    } else {
+                        values[i] = data.readDouble();
+                    }
+                    // 8 byte constants take up two slots
+                    i++;
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skipFully(data, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skipFully(data, 3);
+                    break;
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skipFully(data, 4);
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+    }
+
+    private static AnnotationInfo readAnnotation(DataInputStream data, String[] utf8, Object[] values) throws IOException {
+        AnnotationInfo annotation = new AnnotationInfo(typeName(utf8[data.readUnsignedShort()]));
+        int pairs = data.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String name = utf8[data.readUnsignedShort()];
+            List<String> elementValues = new ArrayList<String>(1);
+            readElementValue(data, utf8, values, elementValues);
+            annotation.put(name, elementValues);
+        }
+        return annotation;
+    }
+
+    /**
+     * Skips an annotation, only keeping its type
+     *
+     * @return the binary name of the annotation type
+     */
+    private static String skipAnnotation(DataInputStream data, String[] utf8) throws IOException {
+        return readProviderAnnotation(data, utf8, null, null);
+    }
+
+    /**
+     * Reads the type of an annotation and, for a provider annotation, the classes in its
+     * <code>value</code> element. The other element values are skipped.
+     *
+     * @param providerAnnotations the binary names of the provider annotations, <code>null</code> for none
+     * @param services receives the classes of the value element of a provider annotation
+     * @return the binary name of the annotation type
+     */
+    private static String readProviderAnnotation(DataInputStream data, String[] utf8, Collection<String> providerAnnotations,
+                                                 List<String> services) throws IOException {
+        String type = typeName(utf8[data.readUnsignedShort()]);
+        boolean provider = providerAnnotations != null && providerAnnotations.contains(type);
+        int pairs = data.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String element = utf8[data.readUnsignedShort()];
+            if (provider && SERVICES_ELEMENT.equals(element)) {
+                readClassValues(data, utf8, services);
+            } else {
+                skipElementValue(data, utf8);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Adds the classes of an element value, the values of another kind are skipped
+     */
+    private static void readClassValues(DataInputStream data, String[] utf8, List<String> result) throws IOException {
+        int tag = data.readUnsignedByte();
+        if (tag == 'c') {
+            result.add(typeName(utf8[data.readUnsignedShort()]));
+        } else if (tag == '[') {
+            int count = data.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                readClassValues(data, utf8, result);
+            }
+        } else {
+            skipElementValue(data, utf8, tag);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream data, String[] utf8) throws IOException {
+        skipElementValue(data, utf8, data.readUnsignedByte());
+    }
+
+    private static void skipElementValue(DataInputStream data, String[] utf8, int tag) throws IOException {
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                skipFully(data, 2);
+                break;
+            case 'e':
+                skipFully(data, 4);
+                break;
+            case '@':
+                skipAnnotation(data, utf8);
+                break;
+            case '[':
+                int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(data, utf8);
+                }
+                break;
+            default:
+                throw new IOException("Unknown annotation element tag " + (char) tag);
+        }
+    }
+
+    /**
+     * Adds the value of an annotation element as a string, arrays add each of their values.
+     * Enum constants are added by name, classes by binary name and nested annotations as
+     * <code>@</code> followed by their type.
+     */
+    private static void readElementValue(DataInputStream data, String[] utf8, Object[] values, List<String> result)
+            throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 'B':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+                result.add(String.valueOf(values[data.readUnsignedShort()]));
+                break;
+            case 'C':
+                result.add(String.valueOf((char) ((Integer) values[data.readUnsignedShort()]).intValue()));
+                break;
+            case 'Z':
+                result.add(String.valueOf(((Integer) values[data.readUnsignedShort()]) != 0));
+                break;
+            case 's':
+                result.add(utf8[data.readUnsignedShort()]);
+                break;
+            case 'e':
+                data.readUnsignedShort(); // enum type
+                result.add(utf8[data.readUnsignedShort()]);
+                break;
+            case 'c':
+                result.add(typeName(utf8[data.readUnsignedShort()]));
+                break;
+            case '@':
+                result.add("@" + readAnnotation(data, utf8, values).getType());
+                break;
+            case '[':
+                int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    readElementValue(data, utf8, values, result);
+                }
+                break;
+            default:
+                throw new IOException("Unknown annotation element tag " + (char) tag);
+        }
+    }
+
+    /**
+     * @param descriptor a field descriptor like <code>Lcom/foo/Bar;</code>, <code>I</code> or <code>[J</code>
+     * @return the Java name of the type
+     */
+    private static String typeName(String descriptor) throws IOException {
+        int dimensions = 0;
+        while (dimensions < descriptor.length() && descriptor.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String elementType;
+        char kind = dimensions < descriptor.length() ? descriptor.charAt(dimensions) : 0;
+        int primitive = PRIMITIVE_DESCRIPTORS.indexOf(kind);
+        if (kind == 'L' && descriptor.endsWith(";")) {
+            elementType = descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.');
+        } else if (kind != 0 && primitive >= 0 && descriptor.length() == dimensions + 1) {
+            elementType = PRIMITIVE_NAMES[primitive];
+        } else {
+            throw new IOException("Invalid type descriptor " + descriptor);
+        }
+        StringBuilder name = new StringBuilder(elementType);
+        for (int i = 0; i < dimensions; i++) {
+            name.append("[]");
+        }
+        return name.toString();
+    }
+
+    private static String className(String[] utf8, int[] classNameIndex, int classIndex) throws IOException {
+        if (classIndex <= 0 || classIndex >= classNameIndex.length || classNameIndex[classIndex] == 0) {
+            throw new IOException("Invalid class reference " + classIndex);
+        }
+        return utf8[classNameIndex[classIndex]].replace('/', '.');
+    }
+
+    /**
+     * Reads the method table, looking for the ways the ServiceLoader can create an instance
+     *
+     * @return the {@link ClassInfo#PUBLIC_NO_ARG_CONSTRUCTOR} and {@link ClassInfo#PROVIDER_METHOD} flags
+     */
+    private static int readFactories(DataInputStream data, String[] utf8) throws IOException {
+        int factories = 0;
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int accessFlags = data.readUnsignedShort();
+            String name = utf8[data.readUnsignedShort()];
+            String descriptor = utf8[data.readUnsignedShort()];
+            if ((accessFlags & ACC_PUBLIC) != 0) {
+                if ("<init>".equals(name) && "()V".equals(descriptor)) {
+                    factories |= ClassInfo.PUBLIC_NO_ARG_CONSTRUCTOR;
+                } else if ("provider".equals(name) && (accessFlags & ACC_STATIC) != 0
+                        && descriptor != null && descriptor.startsWith("()L")) {
+                    factories |= ClassInfo.PROVIDER_METHOD;
+                }
+            }
+            skipAttributes(data);
+        }
+        return factories;
+    }
+
+    private static void skipMembers(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skipFully(data, 6); // access flags, name, descriptor
+            skipAttributes(data);
+        }
+    }
+
+    private static void skipAttributes(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            data.readUnsignedShort(); // name
+            skipFully(data, data.readInt());
+        }
+    }
+
+    private static void skipFully(DataInputStream data, int bytes) throws IOException {
+        int remaining = bytes;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Streams the class files of a class folder to a {@link Visitor} while the folder is walked, the
+ * size and modification time come with the directory listing so no extra file access is needed.
+ */
+final class ClassFolderWalker {
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String MODULE_INFO = "module-info.class";
+
+    /**
+     * Receives the class files as they are found
+     */
+    interface Visitor {
+        /**
+         * @param className the binary class name
+         * @param lastModified the modification time in milliseconds
+         * @param length the file size
+         */
+        void visitClass(String className, long lastModified, long length);
+    }
+
+    private ClassFolderWalker() {
+    }
+
+    /**
+     * Walks a class folder, module descriptors are skipped
+     *
+     * @param classFolder the class folder
+     * @param packages the packages to walk, <code>null</code> for the whole folder
+     * @param visitor receives the class files
+     * @throws IOException if a directory can not be read
+     */
+    static void walk(File classFolder, List<String> packages, final Visitor visitor) throws IOException {
+        Path base = classFolder.toPath();
+        FileVisitor fileVisitor = new FileVisitor(base, visitor);
+        if (packages == null) {
+            walkTree(base, fileVisitor);
+        } else {
+            for (String packageName : packages) {
+                Path root = base.resolve(packageName.replace('.', File.separatorChar));
+                if (Files.isDirectory(root)) {
+                    walkTree(root, fileVisitor);
+                }
+            }
+        }
+    }
+
+    private static void walkTree(Path root, FileVisitor fileVisitor) throws IOException {
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, fileVisitor);
+    }
+
+    private static final class FileVisitor extends SimpleFileVisitor<Path> {
+        private final Path base;
+        private final Visitor visitor;
+
+        FileVisitor(Path base, Visitor visitor) {
+            this.base = base;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            String fileName = file.getFileName().toString();
+            if (attributes.isRegularFile() && fileName.endsWith(CLASS_EXTENSION) && !MODULE_INFO.equals(fileName)) {
+                String relative = base.relativize(file).toString();
+                String className = relative.substring(0, relative.length() - CLASS_EXTENSION.length())
+                        .replace(File.separatorChar, '.');
+                visitor.visitClass(className, attributes.lastModifiedTime().toMillis(), attributes.size());
+            }
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
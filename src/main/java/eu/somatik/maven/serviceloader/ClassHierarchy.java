@@ -0,0 +1,532 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Resolves class headers by name from the class folder, the compile classpath and the platform
+ * (for the JDK types), without ever defining a class.
+ *
+ * The classpath is only asked for when a class is not in the class folder. A class that is not in
+ * the classpath elements resolved so far is looked up on the platform before more elements are
+ * resolved, so JDK types like <code>javax.sql.DataSource</code> do not resolve every dependency.
+ * Classes in <code>java.*</code> are never looked up on the classpath as no jar can define them.
+ *
+ * Safe for use by concurrent scanning threads, a class might get parsed twice when two threads
+ * ask for it at the same time.
+ */
+final class ClassHierarchy implements Closeable {
+
+    private static final String OBJECT = "java.lang.Object";
+
+    /**
+     * Provides the classpath elements when they are first needed, one at a time and in order, so a
+     * lookup only resolves the elements up to the one holding the class
+     */
+    interface Classpath {
+        /**
+         * @return the number of classpath elements
+         * @throws IOException if the classpath can not be determined
+         */
+        int size() throws IOException;
+
+        /**
+         * @param index the position of the element on the classpath
+         * @return the element, a directory or jar, or <code>null</code> if it has no file
+         * @throws IOException if the element can not be resolved
+         */
+        String get(int index) throws IOException;
+    }
+
+    private final File classFolder;
+    private final Classpath classpath;
+    /** the elements resolved so far without duplicates and the class folder, guards the next three fields */
+    private final List<File> roots = new ArrayList<File>();
+    private final Set<File> seenRoots = new HashSet<File>();
+    private int classpathSize = -1;
+    private int classpathPosition;
+    private final Map<String, ClassInfo> classes = new ConcurrentHashMap<String, ClassInfo>();
+    private final Set<String> missing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<File, JarFile> jars = new HashMap<File, JarFile>();
+    private final JarIndexCache indexCache;
+    private final ConcurrentMap<File, FutureTask<JarIndex>> indexes = new ConcurrentHashMap<File, FutureTask<JarIndex>>();
+    /** scanned jars without a cached index, their classes are read from the jar instead of indexing all of them */
+    private final Set<File> unindexedJars = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final Map<String, File> sourceFiles = new ConcurrentHashMap<String, File>();
+    private final AtomicInteger parsed = new AtomicInteger();
+    private volatile Collection<String> providerAnnotations;
+
+    /**
+     * @param classFolder the folder with the compiled classes, searched first
+     * @param classpath the compile classpath elements, directories or jars
+     * @param indexCache the persistent jar index cache, <code>null</code> to look up classes in the jars directly
+     */
+    ClassHierarchy(File classFolder, final List<String> classpath, JarIndexCache indexCache) {
+        this(classFolder, new Classpath() {
+            public int size() {
+                return classpath.size();
+            }
+
+            public String get(int index) {
+                return classpath.get(index);
+            }
+        }, indexCache);
+    }
+
+    /**
+     * @param classFolder the folder with the compiled classes, searched first
+     * @param classpath provides the compile classpath elements when a class is not in the class folder
+     * @param indexCache the persistent jar index cache, <code>null</code> to look up classes in the jars directly
+     */
+    ClassHierarchy(File classFolder, Classpath classpath, JarIndexCache indexCache) {
+        this.classFolder = classFolder.getAbsoluteFile();
+        this.classpath = classpath;
+        this.indexCache = indexCache;
+    }
+
+    /**
+     * Reads the services of the provider annotations together with the headers of the classes that
+     * are parsed from here on, see {@link ClassInfo#getProvidedServices()}
+     *
+     * @param providerAnnotations the binary names of the provider annotations
+     */
+    void setProviderAnnotations(Collection<String> providerAnnotations) {
+        this.providerAnnotations = providerAnnotations;
+    }
+
+    /**
+     * Finds the header of a class
+     *
+     * @param className the binary class name
+     * @return the class header or <code>null</code> if the class is nowhere to be found
+     * @throws IOException if the class exists but could not be read
+     */
+    ClassInfo find(String className) throws IOException {
+        ClassInfo info = classes.get(className);
+        if (info != null || missing.contains(className)) {
+            return info;
+        }
+        String resource = className.replace('.', '/') + ".class";
+        InputStream in = null;
+        File local = new File(classFolder, resource);
+        if (local.isFile()) {
+            in = new FileInputStream(local);
+            sourceFiles.put(className, local);
+        } else if (className.startsWith("java.")) {
+            in = openOnPlatform(resource);
+        } else {
+            int resolved = resolvedRoots();
+            info = findOnClasspath(className, resource, 0, resolved);
+            if (info == null) {
+                in = openOnPlatform(resource);
+                if (in == null) {
+                    info = findOnClasspath(className, resource, resolved, Integer.MAX_VALUE);
+                }
+            }
+            if (info != null) {
+                classes.put(className, info);
+                return info;
+            }
+            if (in == null) {
+                in = ClassLoader.getSystemResourceAsStream(resource);
+            }
+        }
+        if (in == null) {
+            missing.add(className);
+            return null;
+        }
+        try {
+            info = ClassFileParser.parse(in, providerAnnotations);
+        } finally {
+            in.close();
+        }
+        parsed.incrementAndGet();
+        classes.put(className, info);
+        return info;
+    }
+
+    /**
+     * Reads the class level annotations of a class, they are not part of the class headers and so
+     * are read from the class file each time.
+     *
+     * @param className the binary class name
+     * @return the annotations, empty if the class is nowhere to be found
+     * @throws IOException if the class exists but could not be read
+     */
+    List<AnnotationInfo> readAnnotations(String className) throws IOException {
+        return readAnnotations(className, null);
+    }
+
+    /**
+     * Reads the class level annotations of a class if it references one of the annotation types,
+     * see {@link ClassFileParser#parseAnnotations(InputStream, Collection)}
+     *
+     * @param className the binary class name
+     * @param types the binary names of the annotation types, <code>null</code> for all annotations
+     * @return the annotations, empty if the class is nowhere to be found or references none of the types
+     * @throws IOException if the class exists but could not be read
+     */
+    List<AnnotationInfo> readAnnotations(String className, Collection<String> types) throws IOException {
+        String resource = className.replace('.', '/') + ".class";
+        InputStream in = null;
+        File local = new File(classFolder, resource);
+        if (local.isFile()) {
+            in = new FileInputStream(local);
+        } else {
+            File root;
+            for (int i = 0; (root = root(i)) != null; i++) {
+                if (root.isDirectory()) {
+                    File file = new File(root, resource);
+                    if (file.isFile()) {
+                        in = new FileInputStream(file);
+                        break;
+                    }
+                } else if (root.isFile()) {
+                    JarFile jar = jar(root);
+                    ZipEntry entry = jar.getEntry(resource);
+                    if (entry != null) {
+                        in = jar.getInputStream(entry);
+                        break;
+                    }
+                }
+            }
+        }
+        if (in == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return ClassFileParser.parseAnnotations(in, types);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Lists the public interfaces in the class folder and on the classpath whose names a filter
+     * accepts, the type index wildcard services are resolved against. Jars are listed from their
+     * index when there is an index cache, so none of their class files has to be read.
+     *
+     * @param filter selects the interface names
+     * @param packages the packages to list, <code>null</code> for all of them
+     * @return the names of the interfaces, in classpath order
+     * @throws IOException if the classpath can not be listed
+     */
+    Set<String> findInterfaces(final ClassNameFilter filter, List<String> packages) throws IOException {
+        final Set<String> candidates = new LinkedHashSet<String>();
+        ClassFolderWalker.Visitor visitor = new ClassFolderWalker.Visitor() {
+            public void visitClass(String className, long lastModified, long length) {
+                if (filter.accepts(className)) {
+                    candidates.add(className);
+                }
+            }
+        };
+        if (classFolder.isDirectory()) {
+            ClassFolderWalker.walk(classFolder, packages, visitor);
+        }
+        File root;
+        for (int i = 0; (root = root(i)) != null; i++) {
+            if (root.isDirectory()) {
+                ClassFolderWalker.walk(root, packages, visitor);
+            } else if (root.isFile() && indexCache != null) {
+                for (ClassInfo info : index(root).getClasses()) {
+                    if (info.isPublicInterface() && filter.accepts(info.getName())) {
+                        candidates.add(info.getName());
+                    }
+                }
+            } else if (root.isFile()) {
+                JarWalker.walk(root, packages, visitor);
+            }
+        }
+        Set<String> interfaces = new LinkedHashSet<String>();
+        for (String candidate : candidates) {
+            // the first class on the classpath wins, as for the class loader
+            ClassInfo info = find(candidate);
+            if (info != null && info.isPublicInterface()) {
+                interfaces.add(candidate);
+            }
+        }
+        return interfaces;
+    }
+
+    /**
+     * @return the number of class files that were parsed, classes found in a jar index are not counted
+     */
+    int getParsedCount() {
+        return parsed.get();
+    }
+
+    /**
+     * Collects all super classes and interfaces of a class, transitively
+     *
+     * @param info the class
+     * @return the names of all supertypes, types that could not be resolved are included but
+     *         their own supertypes are unknown, see {@link #isMissing(String)}
+     * @throws IOException if a class in the hierarchy could not be read
+     */
+    Set<String> getSupertypes(ClassInfo info) throws IOException {
+        Set<String> supertypes = new LinkedHashSet<String>();
+        Stack<String> todo = new Stack<String>();
+        pushSupertypes(info, todo);
+        while (!todo.isEmpty()) {
+            String name = todo.pop();
+            if (!supertypes.add(name) || OBJECT.equals(name)) {
+                continue;
+            }
+            ClassInfo supertype = find(name);
+            if (supertype != null) {
+                pushSupertypes(supertype, todo);
+            }
+        }
+        return supertypes;
+    }
+
+    /**
+     * @return true if all given types could be resolved
+     */
+    boolean isComplete(Set<String> supertypes) {
+        for (String supertype : supertypes) {
+            if (missing.contains(supertype)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the class was looked up before and could not be found
+     */
+    boolean isMissing(String className) {
+        return missing.contains(className);
+    }
+
+    /**
+     * @return true if any class lookup so far failed
+     */
+    boolean hasMissing() {
+        return !missing.isEmpty();
+    }
+
+    /**
+     * @return all classes that were read from directories, by class name
+     */
+    Map<String, File> getSourceFiles() {
+        return sourceFiles;
+    }
+
+    /**
+     * @param className a class that was resolved before
+     * @return the class file it was read from when it came from a directory, <code>null</code> otherwise
+     */
+    File getSourceFile(String className) {
+        return sourceFiles.get(className);
+    }
+
+    private static void pushSupertypes(ClassInfo info, Stack<String> todo) {
+        if (info.getSuperName() != null) {
+            todo.push(info.getSuperName());
+        }
+        for (String iface : info.getInterfaces()) {
+            todo.push(iface);
+        }
+    }
+
+    /**
+     * Opens a class of the boot or platform class loader, the JDK types
+     */
+    private static InputStream openOnPlatform(String resource) {
+        ClassLoader platform = ClassLoader.getSystemClassLoader().getParent();
+        return platform == null ? ClassLoader.getSystemResourceAsStream(resource) : platform.getResourceAsStream(resource);
+    }
+
+    /**
+     * Gets a classpath element other than the class folder, resolving the elements up to it when
+     * they were not needed before
+     *
+     * @param index the position among the elements without duplicates and the class folder
+     * @return the element or <code>null</code> when there are fewer elements
+     * @throws IOException if the classpath can not be resolved
+     */
+    private File root(int index) throws IOException {
+        synchronized (roots) {
+            if (classpathSize < 0) {
+                classpathSize = classpath.size();
+                seenRoots.add(classFolder);
+            }
+            while (roots.size() <= index && classpathPosition < classpathSize) {
+                String element = classpath.get(classpathPosition++);
+                if (element != null) {
+                    File root = new File(element).getAbsoluteFile();
+                    if (seenRoots.add(root)) {
+                        roots.add(root);
+                    }
+                }
+            }
+            return index < roots.size() ? roots.get(index) : null;
+        }
+    }
+
+    /**
+     * Marks the dependency jars that are scanned for implementations. Checking a candidate from a
+     * jar that has no cached index yet only reads that class file, rather than indexing the whole
+     * jar for the first candidate.
+     *
+     * @param jars the scanned jars
+     */
+    void addScannedJars(Collection<File> jars) {
+        if (indexCache == null) {
+            return;
+        }
+        for (File jar : jars) {
+            if (!indexCache.isCached(jar)) {
+                unindexedJars.add(jar.getAbsoluteFile());
+            }
+        }
+    }
+
+    /**
+     * @return the number of classpath elements resolved so far
+     */
+    private int resolvedRoots() {
+        synchronized (roots) {
+            return roots.size();
+        }
+    }
+
+    /**
+     * Looks up a class in a range of the classpath elements, in classpath order. Jars are looked up
+     * in their index when there is an index cache.
+     *
+     * @param from the first element
+     * @param to the element after the last one, resolving the elements up to it when needed
+     * @return the class header or <code>null</code> if none of the elements holds the class
+     */
+    private ClassInfo findOnClasspath(String className, String resource, int from, int to) throws IOException {
+        File root;
+        for (int i = from; i < to && (root = root(i)) != null; i++) {
+            InputStream in = null;
+            if (root.isDirectory()) {
+                File file = new File(root, resource);
+                if (file.isFile()) {
+                    sourceFiles.put(className, file);
+                    in = new FileInputStream(file);
+                }
+            } else if (root.isFile() && (indexCache == null || unindexedJars.contains(root))) {
+                JarFile jar = jar(root);
+                ZipEntry entry = jar.getEntry(resource);
+                if (entry != null) {
+                    in = jar.getInputStream(entry);
+                }
+            } else if (root.isFile()) {
+                ClassInfo info = index(root).get(className);
+                if (info != null) {
+                    return info;
+                }
+            }
+            if (in != null) {
+                try {
+                    ClassInfo info = ClassFileParser.parse(in, providerAnnotations);
+                    parsed.incrementAndGet();
+                    return info;
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the index of a jar, the first thread asking for a jar builds it while the others wait for
+     * that jar only. A jar that could not be indexed fails every later lookup without being read again.
+     */
+    private JarIndex index(final File file) throws IOException {
+        FutureTask<JarIndex> task = indexes.get(file);
+        if (task == null) {
+            FutureTask<JarIndex> created = new FutureTask<JarIndex>(new Callable<JarIndex>() {
+                public JarIndex call() throws IOException {
+                    return indexCache.get(file);
+                }
+            });
+            task = indexes.putIfAbsent(file, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not index " + file, cause);
+        }
+    }
+
+    private synchronized JarFile jar(File file) throws IOException {
+        JarFile jar = jars.get(file);
+        if (jar == null) {
+            jar = new JarFile(file);
+            jars.put(file, jar);
+        }
+        return jar;
+    }
+
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (JarFile jar : jars.values()) {
+            try {
+                jar.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        jars.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+/**
+ * The parts of a class file header needed to decide whether a class is a service implementation.
+ * All type names are binary names using dots (<code>com.foo.Outer$Inner</code>).
+ */
+final class ClassInfo {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_INTERFACE = 0x0200;
+    static final int ACC_ABSTRACT = 0x0400;
+    static final int ACC_ANNOTATION = 0x2000;
+    static final int ACC_ENUM = 0x4000;
+    static final int ACC_MODULE = 0x8000;
+
+    /** has a public constructor without arguments */
+    static final int PUBLIC_NO_ARG_CONSTRUCTOR = 1;
+    /** has a public static <code>provider()</code> method returning an object */
+    static final int PROVIDER_METHOD = 2;
+
+    private final String name;
+    private final int accessFlags;
+    private final String superName;
+    private final String[] interfaces;
+    private final boolean anonymous;
+    private final int factories;
+    private final String[] annotationTypes;
+    private final String[] providedServices;
+
+    ClassInfo(String name, int accessFlags, String superName, String[] interfaces, boolean anonymous, int factories,
+              String[] annotationTypes) {
+        this(name, accessFlags, superName, interfaces, anonymous, factories, annotationTypes, null);
+    }
+
+    ClassInfo(String name, int accessFlags, String superName, String[] interfaces, boolean anonymous, int factories,
+              String[] annotationTypes, String[] providedServices) {
+        this.name = name;
+        this.accessFlags = accessFlags;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.anonymous = anonymous;
+        this.factories = factories;
+        this.annotationTypes = annotationTypes;
+        this.providedServices = providedServices;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getAccessFlags() {
+        return accessFlags;
+    }
+
+    /**
+     * @return the super class name or <code>null</code> for <code>java.lang.Object</code> and module descriptors
+     */
+    String getSuperName() {
+        return superName;
+    }
+
+    String[] getInterfaces() {
+        return interfaces;
+    }
+
+    boolean isAnonymous() {
+        return anonymous;
+    }
+
+    /**
+     * @return the class level annotation types, the types wildcard services and provider annotations
+     *         match on
+     */
+    String[] getAnnotationTypes() {
+        return annotationTypes;
+    }
+
+    /**
+     * @return the services in the <code>value</code> element of the provider annotations, or
+     *         <code>null</code> when the class was read without them, as for the classes of a jar index
+     */
+    String[] getProvidedServices() {
+        return providedServices;
+    }
+
+    /**
+     * @return the ways the ServiceLoader can create an instance, see {@link #PUBLIC_NO_ARG_CONSTRUCTOR}
+     *         and {@link #PROVIDER_METHOD}
+     */
+    int getFactories() {
+        return factories;
+    }
+
+    /**
+     * @return true if the class has a public no-argument constructor, the only way the ServiceLoader
+     *         creates providers listed in a service file
+     */
+    boolean hasPublicNoArgConstructor() {
+        return (factories & PUBLIC_NO_ARG_CONSTRUCTOR) != 0;
+    }
+
+    /**
+     * @return true if the class has a public static provider method, which the ServiceLoader only
+     *         uses for the providers of a module's <code>provides</code> directives
+     */
+    boolean hasProviderMethod() {
+        return (factories & PROVIDER_METHOD) != 0;
+    }
+
+    boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @return true for a public interface that is not an annotation, the types wildcard services resolve to
+     */
+    boolean isPublicInterface() {
+        return (accessFlags & (ACC_PUBLIC | ACC_INTERFACE)) == (ACC_PUBLIC | ACC_INTERFACE)
+                && (accessFlags & ACC_ANNOTATION) == 0;
+    }
+
+    /**
+     * Same rules as the reflective scan: a public, concrete, non-anonymous class that is
+     * neither an interface, an annotation nor an enum.
+     *
+     * @return true if this class can be registered as a service implementation
+     */
+    boolean isConcretePublicClass() {
+        return (accessFlags & ACC_PUBLIC) != 0
+                && (accessFlags & (ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION | ACC_ENUM | ACC_MODULE)) == 0
+                && !anonymous;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The includes and excludes compiled into a single automaton. Patterns use the same syntax as
+ * {@link org.codehaus.plexus.util.SelectorUtils#match(String, String)}: <code>*</code> matches any
+ * number of characters and <code>?</code> exactly one.
+ *
+ * All patterns are turned into one nondeterministic automaton that is made deterministic while
+ * matching, so a class name is matched in a single pass over its characters whatever the number
+ * of patterns. The deterministic states are cached and can be shared by concurrent threads.
+ */
+final class ClassNameFilter {
+
+    private static final char ANY = 0;
+    private static final char STAR = 1;
+    private static final char LITERAL = 2;
+
+    private static final ClassNameFilter ACCEPT_ALL = new ClassNameFilter(false, new char[0], new char[0], new boolean[0], new boolean[0]);
+
+    private final boolean hasIncludes;
+    /** per nondeterministic state: the kind of token at that position */
+    private final char[] kinds;
+    /** per nondeterministic state: the literal character at that position */
+    private final char[] literals;
+    /** per nondeterministic state: end of an include pattern */
+    private final boolean[] includeEnds;
+    /** per nondeterministic state: end of an exclude pattern */
+    private final boolean[] excludeEnds;
+    private final ConcurrentMap<BitSet, State> states = new ConcurrentHashMap<BitSet, State>();
+    private final State start;
+
+    private ClassNameFilter(boolean hasIncludes, char[] kinds, char[] literals, boolean[] includeEnds, boolean[] excludeEnds) {
+        this.hasIncludes = hasIncludes;
+        this.kinds = kinds;
+        this.literals = literals;
+        this.includeEnds = includeEnds;
+        this.excludeEnds = excludeEnds;
+        BitSet initial = new BitSet();
+        for (int i = 0; i < kinds.length; i++) {
+            if (i == 0 || isEnd(i - 1)) {
+                addClosure(initial, i);
+            }
+        }
+        this.start = state(initial);
+    }
+
+    /**
+     * @param includes the include patterns, when empty all classes are included
+     * @param excludes the exclude patterns
+     * @return the compiled filter
+     */
+    static ClassNameFilter compile(String[] includes, String[] excludes) {
+        int includeCount = includes == null ? 0 : includes.length;
+        int excludeCount = excludes == null ? 0 : excludes.length;
+        if (includeCount == 0 && excludeCount == 0) {
+            return ACCEPT_ALL;
+        }
+        int size = 0;
+        for (int i = 0; i < includeCount; i++) {
+            size += includes[i].length() + 1;
+        }
+        for (int i = 0; i < excludeCount; i++) {
+            size += excludes[i].length() + 1;
+        }
+        char[] kinds = new char[size];
+        char[] literals = new char[size];
+        boolean[] includeEnds = new boolean[size];
+        boolean[] excludeEnds = new boolean[size];
+        int position = 0;
+        for (int i = 0; i < includeCount; i++) {
+            position = addPattern(includes[i], kinds, literals, position);
+            includeEnds[position - 1] = true;
+        }
+        for (int i = 0; i < excludeCount; i++) {
+            position = addPattern(excludes[i], kinds, literals, position);
+            excludeEnds[position - 1] = true;
+        }
+        return new ClassNameFilter(includeCount > 0, kinds, literals, includeEnds, excludeEnds);
+    }
+
+    /**
+     * Lays out the tokens of a pattern followed by its end state
+     */
+    private static int addPattern(String pattern, char[] kinds, char[] literals, int position) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                kinds[position] = STAR;
+            } else if (c == '?') {
+                kinds[position] = ANY;
+            } else {
+                kinds[position] = LITERAL;
+                literals[position] = c;
+            }
+            position++;
+        }
+        kinds[position] = LITERAL;
+        return position + 1;
+    }
+
+    /**
+     * @return the package part of the text before the first wildcard, <code>com.foo</code> for <code>com.foo.Foo*</code>
+     */
+    static String literalPackage(String pattern) {
+        int end = pattern.length();
+        int star = pattern.indexOf('*');
+        int question = pattern.indexOf('?');
+        if (star >= 0) {
+            end = star;
+        }
+        if (question >= 0 && question < end) {
+            end = question;
+        }
+        int lastDot = pattern.lastIndexOf('.', end - 1);
+        return lastDot < 0 ? "" : pattern.substring(0, lastDot);
+    }
+
+    static boolean isWithin(String packageName, String parent) {
+        return packageName.equals(parent) || packageName.startsWith(parent + ".");
+    }
+
+    /**
+     * Drops the packages that are nested in another one, they would be walked twice
+     */
+    static List<String> outermostPackages(List<String> packages) {
+        List<String> result = new ArrayList<String>();
+        for (String candidate : packages) {
+            boolean nested = false;
+            for (String other : packages) {
+                if (!other.equals(candidate) && isWithin(candidate, other)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested && !result.contains(candidate)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param className the class name
+     * @return true if the class matches an include, or there are no includes, and matches no exclude
+     */
+    boolean accepts(String className) {
+        if (this == ACCEPT_ALL) {
+            return true;
+        }
+        State state = start;
+        for (int i = 0; i < className.length() && !state.dead; i++) {
+            state = state.next(className.charAt(i));
+        }
+        return (!hasIncludes || state.included) && !state.excluded;
+    }
+
+    private boolean isEnd(int position) {
+        return includeEnds[position] || excludeEnds[position];
+    }
+
+    /**
+     * Adds a position and everything reachable from it without consuming a character,
+     * a star can also match nothing.
+     */
+    private void addClosure(BitSet set, int position) {
+        int current = position;
+        set.set(current);
+        while (!isEnd(current) && kinds[current] == STAR) {
+            current++;
+            set.set(current);
+        }
+    }
+
+    private State state(BitSet positions) {
+        State state = states.get(positions);
+        if (state == null) {
+            state = new State(positions);
+            State existing = states.putIfAbsent(positions, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * A deterministic state, the set of positions in all patterns that can be reached so far
+     */
+    private final class State {
+        private final BitSet positions;
+        private final boolean dead;
+        private final boolean included;
+        private final boolean excluded;
+        private final State[] asciiTransitions = new State[128];
+        private final ConcurrentMap<Character, State> otherTransitions = new ConcurrentHashMap<Character, State>();
+
+        State(BitSet positions) {
+            this.positions = positions;
+            this.dead = positions.isEmpty();
+            boolean anyInclude = false;
+            boolean anyExclude = false;
+            for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+                anyInclude |= includeEnds[i];
+                anyExclude |= excludeEnds[i];
+            }
+            this.included = anyInclude;
+            this.excluded = anyExclude;
+        }
+
+        State next(char c) {
+            State next;
+            if (c < asciiTransitions.length) {
+                next = asciiTransitions[c];
+                if (next == null) {
+                    next = step(c);
+                    asciiTransitions[c] = next;
+                }
+            } else {
+                next = otherTransitions.get(c);
+                if (next == null) {
+                    next = step(c);
+                    otherTransitions.put(c, next);
+                }
+            }
+            return next;
+        }
+
+        private State step(char c) {
+            BitSet next = new BitSet();
+            for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+                if (isEnd(i)) {
+                    continue;
+                }
+                if (kinds[i] == STAR) {
+                    addClosure(next, i);
+                } else if (kinds[i] == ANY || literals[i] == c) {
+                    addClosure(next, i + 1);
+                }
+            }
+            return state(next);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+
+/**
+ * Emits the Java Flight Recorder events of the plugin, see {@link FlightRecorderEvents}. On a JVM
+ * without JFR nothing happens and the event classes are never loaded.
+ */
+final class FlightRecorder {
+
+    /**
+     * A running event, committed by {@link #finish()} if it is enabled and above its threshold
+     */
+    interface Span {
+        void finish();
+    }
+
+    private static final Span NONE = new Span() {
+        public void finish() {
+        }
+    };
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorder() {
+    }
+
+    static Span classCheck(String className) {
+        return AVAILABLE ? FlightRecorderEvents.classCheck(className) : NONE;
+    }
+
+    static Span classLoaderCreation(int urlCount) {
+        return AVAILABLE ? FlightRecorderEvents.classLoaderCreation(urlCount) : NONE;
+    }
+
+    static Span directoryWalk(File directory) {
+        return AVAILABLE ? FlightRecorderEvents.directoryWalk(directory.getPath()) : NONE;
+    }
+
+    static Span fileWrite(File file, int size) {
+        return AVAILABLE ? FlightRecorderEvents.fileWrite(file.getPath(), size) : NONE;
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Java Flight Recorder event types, only to be used through {@link FlightRecorder}. Their
+ * thresholds can be changed in the recording settings like for any JDK event, for example
+ * <code>eu.somatik.serviceloader.ClassCheck#threshold=10 ms</code>.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    static FlightRecorder.Span classCheck(String className) {
+        ClassCheckEvent event = new ClassCheckEvent();
+        if (event.isEnabled()) {
+            event.className = className;
+            event.begin();
+        }
+        return event;
+    }
+
+    static FlightRecorder.Span classLoaderCreation(int urlCount) {
+        ClassLoaderCreationEvent event = new ClassLoaderCreationEvent();
+        if (event.isEnabled()) {
+            event.urlCount = urlCount;
+            event.begin();
+        }
+        return event;
+    }
+
+    static FlightRecorder.Span directoryWalk(String directory) {
+        DirectoryWalkEvent event = new DirectoryWalkEvent();
+        if (event.isEnabled()) {
+            event.directory = directory;
+            event.begin();
+        }
+        return event;
+    }
+
+    static FlightRecorder.Span fileWrite(String file, int size) {
+        FileWriteEvent event = new FileWriteEvent();
+        if (event.isEnabled()) {
+            event.file = file;
+            event.size = size;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Commits the event when it is enabled and took longer than its threshold
+     */
+    private abstract static class SpanEvent extends Event implements FlightRecorder.Span {
+        public void finish() {
+            end();
+            if (shouldCommit()) {
+                commit();
+            }
+        }
+    }
+
+    @Name("eu.somatik.serviceloader.ClassCheck")
+    @Label("Class Check")
+    @Category({"Maven", "Serviceloader"})
+    @Description("A compiled class checked against the services")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class ClassCheckEvent extends SpanEvent {
+        @Label("Class Name")
+        String className;
+    }
+
+    @Name("eu.somatik.serviceloader.ClassLoaderCreation")
+    @Label("Class Loader Creation")
+    @Category({"Maven", "Serviceloader"})
+    @Description("A class loader created for the project classpath")
+    static final class ClassLoaderCreationEvent extends SpanEvent {
+        @Label("URL Count")
+        int urlCount;
+    }
+
+    @Name("eu.somatik.serviceloader.DirectoryWalk")
+    @Label("Directory Walk")
+    @Category({"Maven", "Serviceloader"})
+    @Description("The class folder walked for compiled classes, including the checks of a streaming scan")
+    @StackTrace(false)
+    static final class DirectoryWalkEvent extends SpanEvent {
+        @Label("Directory")
+        String directory;
+    }
+
+    @Name("eu.somatik.serviceloader.FileWrite")
+    @Label("Service File Write")
+    @Category({"Maven", "Serviceloader"})
+    @Description("A service file compared with its new content and written when it changed")
+    @StackTrace(false)
+    static final class FileWriteEvent extends SpanEvent {
+        @Label("File")
+        String file;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+    }
+}
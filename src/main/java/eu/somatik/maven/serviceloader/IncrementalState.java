@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of the previous scan per class file, so the next build only has to check the classes
+ * that were added or changed, or that have a supertype that was added, changed or deleted.
+ *
+ * The state is only valid for the configuration it was built with, see {@link #getFingerprint()}.
+ * Only a digest of the configuration is stored, the classpath of a large module does not fit in a
+ * single string of the state file.
+ * Classes from classpath directories that were used as supertypes are recorded as well, a change to
+ * one of them invalidates the whole state.
+ */
+final class IncrementalState {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String[] NONE = new String[0];
+
+    /**
+     * What is known about a single class file
+     */
+    static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final String[] services;
+        private final String[] annotatedServices;
+        private final String[] supertypes;
+
+        Entry(long lastModified, long length, String[] services, String[] annotatedServices, String[] supertypes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.services = services;
+            this.annotatedServices = annotatedServices;
+            this.supertypes = supertypes;
+        }
+
+        boolean isUpToDate(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the services this class implements, before includes and excludes are applied
+         */
+        String[] getServices() {
+            return services;
+        }
+
+        /**
+         * @return the services the provider annotations of this class register it for
+         */
+        String[] getAnnotatedServices() {
+            return annotatedServices;
+        }
+
+        /**
+         * @return all supertypes the result depends on
+         */
+        String[] getSupertypes() {
+            return supertypes;
+        }
+    }
+
+    private final String fingerprint;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<String, long[]> externalFiles = new HashMap<String, long[]>();
+
+    /**
+     * @param fingerprint the configuration and classpath the state is built for
+     */
+    IncrementalState(Fingerprint fingerprint) {
+        this(fingerprint.toHex());
+    }
+
+    private IncrementalState(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return the hex digest of the configuration and classpath the state is built for
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    Entry get(String className) {
+        return entries.get(className);
+    }
+
+    Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    void put(String className, long lastModified, long length, String[] services, String[] annotatedServices,
+             String[] supertypes) {
+        entries.put(className, new Entry(lastModified, length, services, annotatedServices, supertypes));
+    }
+
+    /**
+     * Carries over the result of a class from a previous state
+     */
+    void put(String className, Entry entry) {
+        entries.put(className, entry);
+    }
+
+    void put(String className, long lastModified, long length) {
+        put(className, lastModified, length, NONE, NONE, NONE);
+    }
+
+    /**
+     * Records a class file outside the class folder that was used as a supertype
+     */
+    void addExternalFile(File file) {
+        externalFiles.put(file.getAbsolutePath(), new long[]{file.lastModified(), file.length()});
+    }
+
+    /**
+     * Carries over the supertype files of a previous state, the results reused from it depend on them
+     */
+    void addExternalFiles(IncrementalState previous) {
+        externalFiles.putAll(previous.externalFiles);
+    }
+
+    /**
+     * @return true if none of the recorded supertype files outside the class folder changed
+     */
+    boolean externalFilesUpToDate() {
+        for (Map.Entry<String, long[]> externalFile : externalFiles.entrySet()) {
+            File file = new File(externalFile.getKey());
+            long[] stamp = externalFile.getValue();
+            if (file.lastModified() != stamp[0] || file.length() != stamp[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a previously stored state
+     *
+     * @param file the state file
+     * @return the state or <code>null</code> if there is no readable state
+     */
+    static IncrementalState read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                IncrementalState state = new IncrementalState(in.readUTF());
+                int externalCount = in.readInt();
+                for (int i = 0; i < externalCount; i++) {
+                    state.externalFiles.put(in.readUTF(), new long[]{in.readLong(), in.readLong()});
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String className = in.readUTF();
+                    long lastModified = in.readLong();
+                    long length = in.readLong();
+                    state.put(className, lastModified, length, readStrings(in), readStrings(in), readStrings(in));
+                }
+                return state;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void write(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(externalFiles.size());
+            for (Map.Entry<String, long[]> externalFile : externalFiles.entrySet()) {
+                out.writeUTF(externalFile.getKey());
+                out.writeLong(externalFile.getValue()[0]);
+                out.writeLong(externalFile.getValue()[1]);
+            }
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().length);
+                writeStrings(out, entry.getValue().services);
+                writeStrings(out, entry.getValue().annotatedServices);
+                writeStrings(out, entry.getValue().supertypes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count == 0) {
+            return NONE;
+        }
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = in.readUTF();
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The class headers of all classes in a jar, so supertypes can be resolved and wildcard services
+ * matched without opening the jar.
+ */
+final class JarIndex {
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String[] NONE = new String[0];
+    // no jar holds more classes than its central directory has room for entries
+    private static final int MAX_COUNT = 1 << 24;
+
+    private final Map<String, ClassInfo> classes;
+
+    JarIndex(Map<String, ClassInfo> classes) {
+        this.classes = classes;
+    }
+
+    ClassInfo get(String className) {
+        return classes.get(className);
+    }
+
+    Collection<ClassInfo> getClasses() {
+        return classes.values();
+    }
+
+    int size() {
+        return classes.size();
+    }
+
+    /**
+     * @return a rough estimate of the heap used by this index in bytes
+     */
+    long estimatedSize() {
+        long size = 64;
+        for (ClassInfo info : classes.values()) {
+            // map entry, class header and its strings, interface names are counted as references
+            size += 128 + 2L * info.getName().length();
+            if (info.getSuperName() != null) {
+                size += 2L * info.getSuperName().length();
+            }
+            size += 8L * info.getInterfaces().length + 8L * info.getAnnotationTypes().length;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the header of every class in a jar, class files that can not be parsed are left out
+     * of the index so the other classes of the jar can still be resolved.
+     *
+     * @param file the jar file
+     * @param contents receives the entries of the jar, see {@link #addEntries(File, Fingerprint)}
+     * @param log the log the skipped class files are reported to
+     * @return the index
+     * @throws IOException if the jar can not be read
+     */
+    static JarIndex build(File file, Fingerprint contents, Log log) throws IOException {
+        Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>();
+        JarFile jar = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                addEntry(contents, entry);
+                if (entry.isDirectory() || !name.endsWith(CLASS_EXTENSION)
+                        || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                InputStream in = jar.getInputStream(entry);
+                try {
+                    ClassInfo info = ClassFileParser.parse(in);
+                    classes.put(info.getName(), info);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable class " + name + " in " + file + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    log.warn("Skipping malformed class " + name + " in " + file + ": " + e);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return new JarIndex(classes);
+    }
+
+    /**
+     * Adds the name, CRC-32 and size of every entry of a jar to a fingerprint. They come from the
+     * central directory, so the content of the jar is identified without reading the entries.
+     *
+     * @param file the jar file
+     * @param contents receives the entries
+     * @throws IOException if the jar can not be read
+     */
+    static void addEntries(File file, Fingerprint contents) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                addEntry(contents, entries.nextElement());
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static void addEntry(Fingerprint contents, JarEntry entry) {
+        contents.add(entry.getName()).add(entry.getCrc()).add(entry.getSize());
+    }
+
+    /**
+     * Writes the index with a shared string table, most super class and interface names repeat.
+     */
+    void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        for (ClassInfo info : classes.values()) {
+            intern(info.getName(), ids, strings);
+            intern(info.getSuperName(), ids, strings);
+            for (String iface : info.getInterfaces()) {
+                intern(iface, ids, strings);
+            }
+            for (String annotationType : info.getAnnotationTypes()) {
+                intern(annotationType, ids, strings);
+            }
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        out.writeInt(classes.size());
+        for (ClassInfo info : classes.values()) {
+            out.writeInt(ids.get(info.getName()));
+            out.writeShort(info.getAccessFlags());
+            out.writeBoolean(info.isAnonymous());
+            out.writeByte(info.getFactories());
+            out.writeInt(info.getSuperName() == null ? -1 : ids.get(info.getSuperName()));
+            out.writeShort(info.getInterfaces().length);
+            for (String iface : info.getInterfaces()) {
+                out.writeInt(ids.get(iface));
+            }
+            out.writeShort(info.getAnnotationTypes().length);
+            for (String annotationType : info.getAnnotationTypes()) {
+                out.writeInt(ids.get(annotationType));
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the index can not be read or is corrupt
+     */
+    static JarIndex read(DataInputStream in) throws IOException {
+        String[] strings = new String[count(in.readInt())];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        int count = count(in.readInt());
+        Map<String, ClassInfo> classes = new HashMap<String, ClassInfo>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String name = string(strings, in.readInt());
+            int accessFlags = in.readUnsignedShort();
+            boolean anonymous = in.readBoolean();
+            int factories = in.readUnsignedByte();
+            int superId = in.readInt();
+            String[] interfaces = new String[in.readUnsignedShort()];
+            for (int j = 0; j < interfaces.length; j++) {
+                interfaces[j] = string(strings, in.readInt());
+            }
+            int annotationCount = in.readUnsignedShort();
+            String[] annotationTypes = annotationCount == 0 ? NONE : new String[annotationCount];
+            for (int j = 0; j < annotationCount; j++) {
+                annotationTypes[j] = string(strings, in.readInt());
+            }
+            classes.put(name, new ClassInfo(name, accessFlags, superId < 0 ? null : string(strings, superId), interfaces,
+                    anonymous, factories, annotationTypes));
+        }
+        return new JarIndex(classes);
+    }
+
+    private static int count(int count) throws IOException {
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Corrupt index, count " + count);
+        }
+        return count;
+    }
+
+    private static String string(String[] strings, int id) throws IOException {
+        if (id < 0 || id >= strings.length) {
+            throw new IOException("Corrupt index, string " + id + " of " + strings.length);
+        }
+        return strings[id];
+    }
+
+    private static void intern(String string, Map<String, Integer> ids, List<String> strings) {
+        if (string != null && !ids.containsKey(string)) {
+            ids.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Stores a {@link JarIndex} per dependency jar on disk so unchanged jars are only read once.
+ *
+ * An index is reused as is when the jar path, size and modification time match. When only the
+ * modification time changed the index is reused if the entries of the jar are the same, their
+ * names, CRC-32s and sizes are read from the central directory.
+ * Indexes that were used recently can be kept in a {@link JarIndexMemoryCache} in front of the disk.
+ * The first time a cache stores an index it deletes the indexes of jars that no longer exist, so
+ * the indexes of replaced dependency versions do not pile up.
+ */
+final class JarIndexCache {
+
+    private static final int FORMAT_VERSION = 5;
+
+    private final File directory;
+    private final JarIndexMemoryCache memoryCache;
+    private final Log log;
+    private boolean pruned;
+
+    /**
+     * @param directory where the indexes are stored
+     * @param memoryCache the indexes kept in memory, <code>null</code> to always read them from disk
+     * @param log the log
+     */
+    JarIndexCache(File directory, JarIndexMemoryCache memoryCache, Log log) {
+        this.directory = directory;
+        this.memoryCache = memoryCache;
+        this.log = log;
+    }
+
+    /**
+     * Gets the index for a jar, building and storing it when there is no usable cached version
+     *
+     * @param jar the jar file
+     * @return the index
+     * @throws IOException if the jar can not be read
+     */
+    JarIndex get(File jar) throws IOException {
+        String path = jar.getAbsolutePath();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        if (memoryCache == null) {
+            return load(jar, path, size, lastModified);
+        }
+        JarIndex index = memoryCache.get(path, size, lastModified);
+        if (index == null) {
+            index = load(jar, path, size, lastModified);
+            memoryCache.put(path, size, lastModified, index);
+        }
+        return index;
+    }
+
+    /**
+     * Tells whether {@link #get(File)} would find an index for this version of the jar, only the
+     * header of a stored index is read
+     *
+     * @param jar the jar file
+     * @return true if the jar is indexed in memory or on disk
+     */
+    boolean isCached(File jar) {
+        String path = jar.getAbsolutePath();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        if (memoryCache != null && memoryCache.get(path, size, lastModified) != null) {
+            return true;
+        }
+        File indexFile = indexFile(path);
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                return in.readInt() == FORMAT_VERSION && path.equals(in.readUTF())
+                        && in.readLong() == size && in.readLong() == lastModified;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private File indexFile(String path) {
+        return new File(directory, new Fingerprint().add(path).toHex() + ".idx");
+    }
+
+    private JarIndex load(File jar, String path, long size, long lastModified) throws IOException {
+        File indexFile = indexFile(path);
+
+        if (indexFile.isFile()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                try {
+                    if (in.readInt() == FORMAT_VERSION && path.equals(in.readUTF())) {
+                        long cachedSize = in.readLong();
+                        long cachedLastModified = in.readLong();
+                        String cachedHash = in.readUTF();
+                        if (cachedSize == size && cachedLastModified == lastModified) {
+                            return JarIndex.read(in);
+                        }
+                        if (cachedSize == size) {
+                            String hash = hashEntries(jar);
+                            if (hash.equals(cachedHash)) {
+                                JarIndex index = JarIndex.read(in);
+                                store(indexFile, path, size, lastModified, hash, index);
+                                return index;
+                            }
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.debug("Ignoring unreadable jar index " + indexFile + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                // a corrupt file in the shared directory must not fail every later build
+                log.debug("Ignoring corrupt jar index " + indexFile + ": " + e);
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Indexing " + jar);
+        }
+        Fingerprint contents = new Fingerprint();
+        JarIndex index = JarIndex.build(jar, contents, log);
+        store(indexFile, path, size, lastModified, contents.toHex(), index);
+        return index;
+    }
+
+    /**
+     * Writes to a temporary file first so concurrent builds never see a partial index
+     */
+    private void store(File indexFile, String path, long size, long lastModified, String hash, JarIndex index) {
+        File temp = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Could not create " + directory);
+            }
+            prune();
+            temp = File.createTempFile("index", ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(path);
+                out.writeLong(size);
+                out.writeLong(lastModified);
+                out.writeUTF(hash);
+                index.write(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!temp.renameTo(indexFile)) {
+                    throw new IOException("Could not rename " + temp + " to " + indexFile);
+                }
+            }
+            temp = null;
+        } catch (IOException e) {
+            log.warn("Could not store jar index for " + path + ": " + e.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the indexes of jars that no longer exist, once per cache
+     */
+    private void prune() {
+        synchronized (this) {
+            if (pruned) {
+                return;
+            }
+            pruned = true;
+        }
+        File[] indexFiles = directory.listFiles();
+        if (indexFiles == null) {
+            return;
+        }
+        int deleted = 0;
+        for (File indexFile : indexFiles) {
+            if (!indexFile.getName().endsWith(".idx")) {
+                continue;
+            }
+            String path = null;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                try {
+                    in.readInt();
+                    path = in.readUTF();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // another build may just be replacing it, or it is unreadable and rebuilt when used
+            }
+            if (path != null && !new File(path).isFile() && indexFile.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.debug("Deleted " + deleted + " jar indexes of jars that no longer exist");
+        }
+    }
+
+    private static String hashEntries(File jar) throws IOException {
+        Fingerprint contents = new Fingerprint();
+        JarIndex.addEntries(jar, contents);
+        return contents.toHex();
+    }
+}
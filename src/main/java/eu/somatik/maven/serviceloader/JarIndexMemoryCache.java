@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently used {@link JarIndex jar indexes} in memory, so executions in the same JVM (the
+ * modules of a reactor, or the builds of a Maven daemon) do not read them from disk again.
+ *
+ * The indexes are evicted least recently used first once their estimated size exceeds the limit.
+ * An index is dropped as soon as the size or modification time of its jar changed. The limit of the
+ * shared cache is the largest one any execution asked for, see {@link #requestLimit(long)}.
+ */
+final class JarIndexMemoryCache {
+
+    private static final JarIndexMemoryCache SHARED = new JarIndexMemoryCache(0);
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long limit;
+    private long size;
+
+    /**
+     * @param limit the maximum estimated size of the cached indexes in bytes
+     */
+    JarIndexMemoryCache(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the cache shared by all executions in this JVM
+     */
+    static JarIndexMemoryCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Raises the maximum estimated size to at least the given one. Executions that share the cache
+     * may ask for different limits, they never shrink it for each other.
+     */
+    synchronized void requestLimit(long limit) {
+        if (limit > this.limit) {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * @param path the absolute path of the jar
+     * @param length the current size of the jar
+     * @param lastModified the current modification time of the jar
+     * @return the index or <code>null</code> if there is none for this version of the jar
+     */
+    synchronized JarIndex get(String path, long length, long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.length != length || entry.lastModified != lastModified) {
+            remove(path);
+            return null;
+        }
+        return entry.index;
+    }
+
+    synchronized void put(String path, long length, long lastModified, JarIndex index) {
+        remove(path);
+        long weight = index.estimatedSize();
+        if (weight > limit) {
+            return;
+        }
+        entries.put(path, new Entry(length, lastModified, index, weight));
+        size += weight;
+        evict();
+    }
+
+    /**
+     * @return the estimated size of the cached indexes in bytes
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    private void remove(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            size -= removed.weight;
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && size > limit; ) {
+            size -= it.next().weight;
+            it.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final long length;
+        private final long lastModified;
+        private final JarIndex index;
+        private final long weight;
+
+        Entry(long length, long lastModified, JarIndex index, long weight) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.index = index;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streams the class names in a jar to a {@link ClassFolderWalker.Visitor}. Only the central
+ * directory of the jar is read, the class files themselves are left for the checks to read when
+ * the name passes the filters.
+ */
+final class JarWalker {
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private JarWalker() {
+    }
+
+    /**
+     * Walks a jar, module descriptors and the entries under META-INF are skipped
+     *
+     * @param jar the jar file
+     * @param packages the packages to walk, <code>null</code> for the whole jar
+     * @param visitor receives the classes, with the modification time and size of the jar
+     * @throws IOException if the jar can not be read
+     */
+    static void walk(File jar, List<String> packages, ClassFolderWalker.Visitor visitor) throws IOException {
+        long lastModified = jar.lastModified();
+        long length = jar.length();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(CLASS_EXTENSION) || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                String className = name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.');
+                if (packages == null || isInPackages(className, packages)) {
+                    visitor.visitClass(className, lastModified, length);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static boolean isInPackages(String className, List<String> packages) {
+        for (String packageName : packages) {
+            if (className.startsWith(packageName + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * Goal that generates the services files like <code>generate</code>, but only collects the
+ * dependencies up front. The bytecode scan walks the classpath in order and resolves each
+ * dependency jar the first time a lookup reaches it, so a class found in the first jars never
+ * downloads the others, and a module whose implementations only extend its own types and the JDK
+ * never downloads any. Listing the classpath types for wildcard services needs every jar, the
+ * reflection scan resolves them all in a single request.
+ */
+@Mojo(
+        name = "generate-lazy",
+        defaultPhase = LifecyclePhase.COMPILE,
+        requiresDependencyCollection = ResolutionScope.COMPILE,
+        requiresProject = true,
+        threadSafe = true)
+public class LazyServiceloaderMojo extends ServiceloaderMojo {
+
+    private final RepositorySystem repositorySystem;
+
+    @Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
+    private RepositorySystemSession repositorySession;
+
+    @Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+    private List<RemoteRepository> remoteRepositories;
+
+    /**
+     * The collected dependencies, they have no file until they are resolved
+     */
+    @Parameter(defaultValue = "${project.artifacts}", readonly = true)
+    private Set<Artifact> artifacts;
+
+    private List<Artifact> classpathArtifacts;
+    private List<String> classpath;
+
+    @Inject
+    public LazyServiceloaderMojo(RepositorySystem repositorySystem) {
+        this.repositorySystem = repositorySystem;
+    }
+
+    @Override
+    synchronized List<String> resolveClasspath() throws MojoExecutionException {
+        if (artifacts == null || repositorySystem == null) {
+            return super.resolveClasspath();
+        }
+        if (classpath == null) {
+            List<Artifact> dependencies = getClasspathArtifacts();
+            resolve(dependencies);
+            List<String> elements = new ArrayList<String>();
+            elements.add(getClassFolder().getPath());
+            for (Artifact artifact : dependencies) {
+                if (artifact.getFile() != null) {
+                    elements.add(artifact.getFile().getPath());
+                }
+            }
+            classpath = elements;
+        }
+        return classpath;
+    }
+
+    /**
+     * The output folder followed by the collected dependencies, none of them is resolved
+     */
+    @Override
+    int getClasspathSize() throws MojoExecutionException {
+        if (artifacts == null || repositorySystem == null) {
+            return super.getClasspathSize();
+        }
+        return 1 + getClasspathArtifacts().size();
+    }
+
+    /**
+     * Resolves only the dependency at the index, when it has no file yet
+     */
+    @Override
+    synchronized String resolveClasspathElement(int index) throws MojoExecutionException {
+        if (artifacts == null || repositorySystem == null) {
+            return super.resolveClasspathElement(index);
+        }
+        if (index == 0) {
+            return getClassFolder().getPath();
+        }
+        Artifact artifact = getClasspathArtifacts().get(index - 1);
+        resolve(Collections.singletonList(artifact));
+        return artifact.getFile() == null ? null : artifact.getFile().getPath();
+    }
+
+    /**
+     * Uses the ids of the dependencies and the jars that are already in the local repository, so
+     * checking whether anything changed does not resolve anything
+     */
+    @Override
+    void addClasspath(Fingerprint fingerprint) {
+        if (artifacts == null || repositorySession == null) {
+            super.addClasspath(fingerprint);
+            return;
+        }
+        fingerprint.add(getClassFolder().getPath());
+        File localRepository = repositorySession.getLocalRepository().getBasedir();
+        for (Artifact artifact : getClasspathArtifacts()) {
+            fingerprint.add(artifact.getId());
+            File file = artifact.getFile();
+            if (file == null) {
+                file = new File(localRepository,
+                        repositorySession.getLocalRepositoryManager().getPathForLocalArtifact(toRepositoryArtifact(artifact)));
+            }
+            if (file.isFile()) {
+                fingerprint.addFile(file);
+            }
+        }
+    }
+
+    /**
+     * The output folder and the dependencies that are directories already, reactor modules that
+     * were not packaged
+     */
+    @Override
+    List<File> getClasspathDirectories() {
+        if (artifacts == null || repositorySession == null) {
+            return super.getClasspathDirectories();
+        }
+        List<File> directories = new ArrayList<File>();
+        directories.add(getClassFolder());
+        for (Artifact artifact : getClasspathArtifacts()) {
+            if (artifact.getFile() != null && artifact.getFile().isDirectory()) {
+                directories.add(artifact.getFile());
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Only resolves the dependencies selected by scanDependencies
+     */
+    @Override
+    List<File> getDependencyJars() throws MojoExecutionException {
+        String[] patterns = getScanDependencies();
+        if (artifacts != null && repositorySystem != null && patterns != null && patterns.length != 0) {
+            ClassNameFilter filter = ClassNameFilter.compile(patterns, null);
+            List<Artifact> selected = new ArrayList<Artifact>();
+            for (Artifact artifact : getClasspathArtifacts()) {
+                if (filter.accepts(artifact.getGroupId() + ":" + artifact.getArtifactId())) {
+                    selected.add(artifact);
+                }
+            }
+            resolve(selected);
+            return selectDependencyJars(selected, patterns);
+        }
+        return super.getDependencyJars();
+    }
+
+    /**
+     * @return the collected dependencies that end up on the compile classpath, in classpath order
+     */
+    private synchronized List<Artifact> getClasspathArtifacts() {
+        if (classpathArtifacts != null) {
+            return classpathArtifacts;
+        }
+        List<Artifact> selected = new ArrayList<Artifact>();
+        for (Artifact artifact : artifacts) {
+            String scope = artifact.getScope();
+            if (artifact.getArtifactHandler().isAddedToClasspath()
+                    && (Artifact.SCOPE_COMPILE.equals(scope) || Artifact.SCOPE_PROVIDED.equals(scope)
+                    || Artifact.SCOPE_SYSTEM.equals(scope))) {
+                selected.add(artifact);
+            }
+        }
+        classpathArtifacts = selected;
+        return selected;
+    }
+
+    /**
+     * Resolves the artifacts that have no file yet in a single request
+     */
+    private void resolve(Collection<Artifact> dependencies) throws MojoExecutionException {
+        List<Artifact> unresolved = new ArrayList<Artifact>();
+        List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>();
+        for (Artifact artifact : dependencies) {
+            if (artifact.getFile() == null) {
+                unresolved.add(artifact);
+                requests.add(new ArtifactRequest(toRepositoryArtifact(artifact), remoteRepositories, null));
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (requests.size() == 1) {
+            getLog().info("Resolving " + unresolved.get(0).getId() + "...");
+        } else {
+            getLog().info("Resolving " + requests.size() + " dependencies...");
+        }
+        try {
+            List<ArtifactResult> results = repositorySystem.resolveArtifacts(repositorySession, requests);
+            for (int i = 0; i < results.size(); i++) {
+                unresolved.get(i).setFile(results.get(i).getArtifact().getFile());
+            }
+        } catch (ArtifactResolutionException e) {
+            throw new MojoExecutionException("Could not resolve dependencies", e);
+        }
+    }
+
+    private static org.eclipse.aether.artifact.Artifact toRepositoryArtifact(Artifact artifact) {
+        ArtifactHandler handler = artifact.getArtifactHandler();
+        String classifier = artifact.getClassifier() != null ? artifact.getClassifier() : handler.getClassifier();
+        return new DefaultArtifact(artifact.getGroupId(), artifact.getArtifactId(),
+                classifier == null ? "" : classifier, handler.getExtension(), artifact.getVersion());
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and replaces the <code>provides</code> directives of a compiled module descriptor. Only the
+ * provides table of the Module attribute and the end of the constant pool are touched, everything
+ * else is copied as is.
+ *
+ * See section 4.7.25 of the Java Virtual Machine Specification for the format.
+ */
+final class ModuleInfoRewriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final byte[] classFile;
+    private final Map<Integer, String> utf8 = new HashMap<Integer, String>();
+    private final Map<Integer, Integer> classNameIndex = new HashMap<Integer, Integer>();
+    private int poolSize;
+    private int poolEnd;
+    private int attributeLengthOffset;
+    private int providesStart;
+    private int providesEnd;
+    private final Map<String, List<String>> provides = new LinkedHashMap<String, List<String>>();
+
+    private ModuleInfoRewriter(byte[] classFile) throws IOException {
+        this.classFile = classFile;
+        try {
+            parse(ByteBuffer.wrap(classFile));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Unexpected end of module descriptor");
+        }
+    }
+
+    /**
+     * @param classFile the module-info.class contents
+     * @return the implementations per service, in the order of the descriptor
+     * @throws IOException if this is not a valid module descriptor
+     */
+    static Map<String, List<String>> readProvides(byte[] classFile) throws IOException {
+        return new ModuleInfoRewriter(classFile).provides;
+    }
+
+    /**
+     * Replaces the provides directives of the given services, the others are kept
+     *
+     * @param classFile the module-info.class contents
+     * @param services the implementations per service, a service without implementations loses its directive
+     * @return the new module-info.class contents
+     * @throws IOException if this is not a valid module descriptor
+     */
+    static byte[] withProvides(byte[] classFile, Map<String, ? extends Collection<String>> services) throws IOException {
+        return new ModuleInfoRewriter(classFile).rewrite(services);
+    }
+
+    private void parse(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        buffer.getShort(); // minor
+        buffer.getShort(); // major
+        poolSize = buffer.getShort() & 0xFFFF;
+        for (int i = 1; i < poolSize; i++) {
+            int tag = buffer.get() & 0xFF;
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    int length = buffer.getShort() & 0xFFFF;
+                    // modified UTF-8, read including its length
+                    utf8.put(i, new DataInputStream(new ByteArrayInputStream(classFile, buffer.position() - 2, length + 2)).readUTF());
+                    skip(buffer, length);
+                    break;
+                case CONSTANT_CLASS:
+                    classNameIndex.put(i, buffer.getShort() & 0xFFFF);
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    skip(buffer, 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    skip(buffer, 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    skip(buffer, 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    skip(buffer, 8);
+                    // 8 byte constants take up two slots
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+            }
+        }
+        poolEnd = buffer.position();
+
+        skip(buffer, 6); // access flags, this class, super class
+        skip(buffer, 2 * (buffer.getShort() & 0xFFFF)); // interfaces
+        skipMembers(buffer); // fields
+        skipMembers(buffer); // methods
+        int attributeCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < attributeCount; i++) {
+            String name = utf8.get(buffer.getShort() & 0xFFFF);
+            int lengthOffset = buffer.position();
+            int length = buffer.getInt();
+            if ("Module".equals(name)) {
+                attributeLengthOffset = lengthOffset;
+                parseModule(buffer);
+                return;
+            }
+            skip(buffer, length);
+        }
+        throw new IOException("Not a module descriptor");
+    }
+
+    private void parseModule(ByteBuffer buffer) throws IOException {
+        skip(buffer, 6); // name, flags, version
+        skip(buffer, 6 * (buffer.getShort() & 0xFFFF)); // requires
+        for (int directives = 0; directives < 2; directives++) { // exports and opens
+            int count = buffer.getShort() & 0xFFFF;
+            for (int i = 0; i < count; i++) {
+                skip(buffer, 4); // package, flags
+                skip(buffer, 2 * (buffer.getShort() & 0xFFFF));
+            }
+        }
+        skip(buffer, 2 * (buffer.getShort() & 0xFFFF)); // uses
+        providesStart = buffer.position();
+        int count = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            String service = className(buffer.getShort() & 0xFFFF);
+            int withCount = buffer.getShort() & 0xFFFF;
+            List<String> implementations = new ArrayList<String>(withCount);
+            for (int j = 0; j < withCount; j++) {
+                implementations.add(className(buffer.getShort() & 0xFFFF));
+            }
+            provides.put(service, implementations);
+        }
+        providesEnd = buffer.position();
+    }
+
+    private byte[] rewrite(Map<String, ? extends Collection<String>> services) throws IOException {
+        Map<String, List<String>> newProvides = new LinkedHashMap<String, List<String>>(provides);
+        for (Map.Entry<String, ? extends Collection<String>> service : services.entrySet()) {
+            if (service.getValue().isEmpty()) {
+                newProvides.remove(service.getKey());
+            } else {
+                newProvides.put(service.getKey(), new ArrayList<String>(service.getValue()));
+            }
+        }
+
+        Map<String, Integer> classIndexes = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, Integer> classEntry : classNameIndex.entrySet()) {
+            String name = utf8.get(classEntry.getValue());
+            if (name != null) {
+                classIndexes.put(name, classEntry.getKey());
+            }
+        }
+        ByteArrayOutputStream newConstants = new ByteArrayOutputStream();
+        DataOutputStream constantsOut = new DataOutputStream(newConstants);
+        int nextIndex = poolSize;
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        tableOut.writeShort(newProvides.size());
+        for (Map.Entry<String, List<String>> service : newProvides.entrySet()) {
+            List<String> names = new ArrayList<String>();
+            names.add(service.getKey());
+            names.addAll(service.getValue());
+            for (int i = 0; i < names.size(); i++) {
+                String internalName = names.get(i).replace('.', '/');
+                Integer index = classIndexes.get(internalName);
+                if (index == null) {
+                    constantsOut.writeByte(CONSTANT_UTF8);
+                    constantsOut.writeUTF(internalName);
+                    constantsOut.writeByte(CONSTANT_CLASS);
+                    constantsOut.writeShort(nextIndex);
+                    index = nextIndex + 1;
+                    nextIndex += 2;
+                    classIndexes.put(internalName, index);
+                }
+                tableOut.writeShort(index);
+                if (i == 0) {
+                    tableOut.writeShort(service.getValue().size());
+                }
+            }
+        }
+        if (nextIndex > 0xFFFF) {
+            throw new IOException("Constant pool too large");
+        }
+        constantsOut.flush();
+        tableOut.flush();
+
+        long oldLength = ByteBuffer.wrap(classFile, attributeLengthOffset, 4).getInt() & 0xFFFFFFFFL;
+        long newLength = oldLength - (providesEnd - providesStart) + table.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(classFile.length + newConstants.size() + table.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(classFile, 0, 8);
+        out.writeShort(nextIndex);
+        out.write(classFile, 10, poolEnd - 10);
+        newConstants.writeTo(out);
+        out.write(classFile, poolEnd, attributeLengthOffset - poolEnd);
+        out.writeInt((int) newLength);
+        out.write(classFile, attributeLengthOffset + 4, providesStart - attributeLengthOffset - 4);
+        table.writeTo(out);
+        out.write(classFile, providesEnd, classFile.length - providesEnd);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private String className(int classIndex) throws IOException {
+        Integer nameIndex = classNameIndex.get(classIndex);
+        String name = nameIndex == null ? null : utf8.get(nameIndex);
+        if (name == null) {
+            throw new IOException("Invalid class reference " + classIndex);
+        }
+        return name.replace('/', '.');
+    }
+
+    private static void skipMembers(ByteBuffer buffer) {
+        int count = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            skip(buffer, 6); // access flags, name, descriptor
+            int attributes = buffer.getShort() & 0xFFFF;
+            for (int j = 0; j < attributes; j++) {
+                skip(buffer, 2);
+                skip(buffer, buffer.getInt());
+            }
+        }
+    }
+
+    /**
+     * Moves the position forward, through {@link Buffer} as ByteBuffer only overrides position on Java 9+
+     */
+    private static void skip(ByteBuffer buffer, int bytes) {
+        if (bytes < 0 || bytes > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ((Buffer) buffer).position(buffer.position() + bytes);
+    }
+}
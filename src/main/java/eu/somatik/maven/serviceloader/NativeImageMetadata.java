@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The GraalVM native-image configuration for the generated service files: the implementations
+ * have to be registered for reflective instantiation and the service files included as resources,
+ * see <a href="https://www.graalvm.org/latest/reference-manual/native-image/metadata/">Reachability Metadata</a>.
+ */
+final class NativeImageMetadata {
+
+    static final String REFLECT_CONFIG = "reflect-config.json";
+    static final String RESOURCE_CONFIG = "resource-config.json";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private NativeImageMetadata() {
+    }
+
+    /**
+     * @param services the implementations per service
+     * @return a reflect-config.json registering the no-argument constructor of every implementation
+     */
+    static byte[] reflectConfig(Map<String, ? extends Collection<String>> services) {
+        Set<String> implementations = new TreeSet<String>();
+        for (Collection<String> serviceImplementations : services.values()) {
+            implementations.addAll(serviceImplementations);
+        }
+        StringBuilder json = new StringBuilder("[");
+        String separator = "";
+        for (String implementation : implementations) {
+            json.append(separator).append("\n  {\n");
+            json.append("    \"name\": ").append(ScanReport.quote(implementation)).append(",\n");
+            json.append("    \"methods\": [{\"name\": \"<init>\", \"parameterTypes\": []}]\n");
+            json.append("  }");
+            separator = ",";
+        }
+        json.append(implementations.isEmpty() ? "]\n" : "\n]\n");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @param servicesPath the resource path of the service files, e.g. <code>META-INF/services</code>
+     * @param serviceNames the services
+     * @return a resource-config.json including the service files
+     */
+    static byte[] resourceConfig(String servicesPath, Collection<String> serviceNames) {
+        StringBuilder json = new StringBuilder("{\n  \"resources\": {\n    \"includes\": [");
+        String separator = "";
+        for (String serviceName : new TreeSet<String>(serviceNames)) {
+            String pattern = "\\Q" + servicesPath + "/" + serviceName + "\\E";
+            json.append(separator).append("\n      {\"pattern\": ").append(ScanReport.quote(pattern)).append("}");
+            separator = ",";
+        }
+        json.append(serviceNames.isEmpty() ? "]\n" : "\n    ]\n");
+        json.append("  }\n}\n");
+        return json.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class loader for the compile classpath that releases its jar files when closed.
+ *
+ * When shared, the jars are loaded by a parent loader that is reused by every execution with the
+ * same jars in the same order, for as long as none of them changed. Only the class folder of the
+ * project gets a loader of its own, which looks up its classes before asking the jars, so the
+ * classpath order is kept. A classpath with other directories, such as the output folders of
+ * other reactor modules, is never shared: classes in the jars may refer to classes in those
+ * folders, and a shared parent can not see them. The shared loaders are reference counted, a few
+ * unused ones are kept open for the next module.
+ */
+final class ProjectClassLoader implements Closeable {
+
+    private static final int MAX_IDLE_SHARED = 8;
+    /** guarded by the class lock, the least recently released loaders first */
+    private static final Map<String, Shared> SHARED = new LinkedHashMap<String, Shared>();
+
+    private final URLClassLoader loader;
+    private final Shared shared;
+    private final int urlCount;
+    private boolean closed;
+
+    private ProjectClassLoader(URLClassLoader loader, Shared shared, int urlCount) {
+        this.loader = loader;
+        this.shared = shared;
+        this.urlCount = urlCount;
+    }
+
+    /**
+     * @param classpath the classpath elements, directories or jars
+     * @param classFolder the class folder of the project, the only directory a shared loader allows
+     * @param share true to load the jars through a shared loader when the classpath allows it
+     * @return the class loader, to be closed when done
+     * @throws MalformedURLException if an element can not be turned into a URL
+     */
+    static ProjectClassLoader create(List<String> classpath, File classFolder, boolean share) throws MalformedURLException {
+        if (!share || !isShareable(classpath, classFolder)) {
+            URL[] urls = toUrls(classpath);
+            return new ProjectClassLoader(new URLClassLoader(urls), null, urls.length);
+        }
+        List<String> jars = new ArrayList<String>();
+        List<String> directories = new ArrayList<String>();
+        for (String element : classpath) {
+            if (isJar(element)) {
+                jars.add(element);
+            } else {
+                directories.add(element);
+            }
+        }
+        Shared shared = acquire(jars);
+        URL[] urls = toUrls(directories);
+        return new ProjectClassLoader(new ClassFolderLoader(urls, shared.loader), shared, urls.length + jars.size());
+    }
+
+    /**
+     * @return true if the class folder, when on the classpath, is its first element and all other
+     *         elements are jars
+     */
+    static boolean isShareable(List<String> classpath, File classFolder) {
+        File folder = classFolder == null ? null : classFolder.getAbsoluteFile();
+        for (int i = 0; i < classpath.size(); i++) {
+            String element = classpath.get(i);
+            if (!isJar(element) && (i > 0 || !new File(element).getAbsoluteFile().equals(folder))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ClassLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * @return the number of classpath elements this loader reads from
+     */
+    int getUrlCount() {
+        return urlCount;
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            loader.close();
+        } finally {
+            if (shared != null) {
+                release(shared);
+            }
+        }
+    }
+
+    private static synchronized Shared acquire(List<String> jars) throws MalformedURLException {
+        Fingerprint fingerprint = new Fingerprint();
+        for (String jar : jars) {
+            fingerprint.addFile(new File(jar));
+        }
+        String key = fingerprint.toHex();
+        Shared shared = SHARED.get(key);
+        if (shared == null) {
+            shared = new Shared(key, new URLClassLoader(toUrls(jars)));
+            SHARED.put(key, shared);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    private static synchronized void release(Shared shared) throws IOException {
+        shared.references--;
+        if (shared.references > 0) {
+            return;
+        }
+        // move to the end, the idle loaders at the start get closed first
+        SHARED.remove(shared.key);
+        SHARED.put(shared.key, shared);
+        int idle = 0;
+        for (Shared candidate : SHARED.values()) {
+            if (candidate.references == 0) {
+                idle++;
+            }
+        }
+        for (Iterator<Shared> it = SHARED.values().iterator(); it.hasNext() && idle > MAX_IDLE_SHARED; ) {
+            Shared candidate = it.next();
+            if (candidate.references == 0) {
+                it.remove();
+                idle--;
+                candidate.loader.close();
+            }
+        }
+    }
+
+    private static boolean isJar(String element) {
+        return element.endsWith(".jar");
+    }
+
+    private static URL[] toUrls(List<String> classpath) throws MalformedURLException {
+        URL[] urls = new URL[classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            String path = classpath.get(i);
+            if (isJar(path)) {
+                urls[i] = new URL("jar:" + new File(path).toURI().toString() + "!/");
+            } else {
+                urls[i] = new File(path).toURI().toURL();
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Loads the classes of the class folder before those of the shared jars, as the class folder
+     * comes first on the classpath
+     */
+    private static final class ClassFolderLoader extends URLClassLoader {
+
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        ClassFolderLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null && !name.startsWith("java.")) {
+                    try {
+                        type = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        // not in the class folder
+                    }
+                }
+                if (type == null) {
+                    return super.loadClass(name, resolve);
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+
+        @Override
+        public URL getResource(String name) {
+            URL resource = findResource(name);
+            return resource != null ? resource : super.getResource(name);
+        }
+    }
+
+    /**
+     * A loader for a set of jars and the number of executions using it
+     */
+    private static final class Shared {
+        private final String key;
+        private final URLClassLoader loader;
+        private int references;
+
+        Shared(String key, URLClassLoader loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+    }
+}
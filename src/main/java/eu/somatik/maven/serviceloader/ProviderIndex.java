@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+/**
+ * The sidecar of a service file that describes its providers, so an application can pick one
+ * without instantiating them all. It is written to <code>META-INF/serviceloader</code> rather than
+ * next to the service file, tools that merge every file in <code>META-INF/services</code> would take
+ * it for a service file. It is a properties file with keys of the form
+ * <code>&lt;provider&gt;.&lt;attribute&gt;</code>, multiple values are separated by commas:
+ * <ul>
+ * <li><code>interfaces</code>: the interfaces of the provider that extend the service, always present</li>
+ * <li><code>priority</code>: the value of a <code>javax.annotation.Priority</code> or
+ * <code>jakarta.annotation.Priority</code> annotation</li>
+ * <li><code>@&lt;annotation&gt;</code>: present for every class level annotation, and
+ * <code>@&lt;annotation&gt;.&lt;element&gt;</code> for each element value in the class file</li>
+ * </ul>
+ */
+final class ProviderIndex {
+
+    static final String DIRECTORY = "META-INF/serviceloader";
+    static final String INTERFACES = "interfaces";
+    static final String PRIORITY = "priority";
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final StringBuilder content = new StringBuilder();
+
+    /**
+     * @param classFolder the folder with the compiled classes
+     * @param service the service
+     * @return the index file of the service
+     */
+    static File file(File classFolder, String service) {
+        return new File(classFolder, DIRECTORY + "/" + service + ".index");
+    }
+
+    /**
+     * @param service the service the providers implement
+     */
+    ProviderIndex(String service) {
+        content.append("# Providers of ").append(service).append('\n');
+    }
+
+    /**
+     * Adds an attribute of a provider
+     *
+     * @param provider the provider class
+     * @param attribute the attribute name
+     * @param values the values, joined by commas
+     */
+    void add(String provider, String attribute, Collection<String> values) {
+        escape(provider + "." + attribute, true);
+        content.append('=');
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() != 0) {
+                joined.append(',');
+            }
+            joined.append(value);
+        }
+        escape(joined.toString(), false);
+        content.append('\n');
+    }
+
+    /**
+     * @return the content in the encoding of {@link java.util.Properties#load(java.io.InputStream)}
+     */
+    byte[] toBytes() {
+        return content.toString().getBytes(ISO_8859_1);
+    }
+
+    private void escape(String value, boolean key) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    content.append('\\').append(c);
+                    break;
+                case ' ':
+                    if (key || i == 0) {
+                        content.append('\\');
+                    }
+                    content.append(c);
+                    break;
+                case '\t':
+                    content.append("\\t");
+                    break;
+                case '\n':
+                    content.append("\\n");
+                    break;
+                case '\r':
+                    content.append("\\r");
+                    break;
+                case '\f':
+                    content.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        content.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        content.append(c);
+                    }
+            }
+        }
+    }
+}
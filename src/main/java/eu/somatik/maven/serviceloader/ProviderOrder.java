@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order of the providers in a service file. Providers matching an earlier pattern of the
+ * configured order come first, then those with a lower priority value, and the rest is sorted by
+ * name, so the order only depends on the configuration and the classes.
+ */
+final class ProviderOrder {
+
+    private final ClassNameFilter[] patterns;
+
+    /**
+     * @param patterns provider class name patterns, as for the includes, <code>null</code> for none
+     */
+    ProviderOrder(String[] patterns) {
+        int count = patterns == null ? 0 : patterns.length;
+        this.patterns = new ClassNameFilter[count];
+        for (int i = 0; i < count; i++) {
+            this.patterns[i] = ClassNameFilter.compile(new String[]{patterns[i]}, null);
+        }
+    }
+
+    /**
+     * @param providers the providers of a service
+     * @param priorities the priority of the providers that declare one
+     * @return the providers in the order they are to be written
+     */
+    List<String> sort(Collection<String> providers, final Map<String, Integer> priorities) {
+        List<String> sorted = new ArrayList<String>(providers);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String first, String second) {
+                int result = compareInts(rank(first), rank(second));
+                if (result == 0) {
+                    result = comparePriorities(priorities.get(first), priorities.get(second));
+                }
+                return result == 0 ? first.compareTo(second) : result;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return the index of the first pattern the provider matches, after all patterns if none
+     */
+    private int rank(String provider) {
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].accepts(provider)) {
+                return i;
+            }
+        }
+        return patterns.length;
+    }
+
+    /**
+     * Providers without a priority come after those with one
+     */
+    private static int comparePriorities(Integer first, Integer second) {
+        if (first == null || second == null) {
+            return first == null ? (second == null ? 0 : 1) : -1;
+        }
+        return compareInts(first, second);
+    }
+
+    private static int compareInts(int first, int second) {
+        return first < second ? -1 : (first == second ? 0 : 1);
+    }
+}
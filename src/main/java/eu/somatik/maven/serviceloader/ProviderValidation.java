@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Applies the providerValidation to the implementations of a scan. The ServiceLoader needs a
+ * public no-argument constructor, or a public static provider() method for the providers of a
+ * module, to instantiate a provider.
+ */
+final class ProviderValidation {
+
+    static final String IGNORE = "ignore";
+    static final String WARN = "warn";
+    static final String EXCLUDE = "exclude";
+    static final String FAIL = "fail";
+
+    private final String mode;
+    private final boolean moduleProvides;
+    private final Log log;
+
+    /**
+     * @param mode the providerValidation, <code>null</code> to warn
+     * @param moduleProvides true if the providers are also declared by the provides directives of
+     *                       the module descriptor, the only place the ServiceLoader uses a provider() method
+     * @param log receives the warnings
+     */
+    ProviderValidation(String mode, boolean moduleProvides, Log log) {
+        this.mode = mode;
+        this.moduleProvides = moduleProvides;
+        this.log = log;
+    }
+
+    /**
+     * @return true if every implementation is accepted without looking at it
+     */
+    boolean isIgnored() {
+        return IGNORE.equals(mode);
+    }
+
+    /**
+     * Validates an implementation read from its class file
+     *
+     * @return true if the class is to be registered
+     * @throws MojoExecutionException if the build should fail
+     */
+    boolean accept(ClassInfo info) throws MojoExecutionException {
+        if (isIgnored()) {
+            return true;
+        }
+        String problem = instantiationProblem(info.getName(), info.hasPublicNoArgConstructor(), info.hasProviderMethod());
+        return problem == null || acceptUninstantiable(problem);
+    }
+
+    /**
+     * Validates an implementation through reflection
+     *
+     * @return true if the class is to be registered
+     * @throws MojoExecutionException if the build should fail or the class can not be loaded
+     */
+    boolean accept(ClassLoader loader, String className) throws MojoExecutionException {
+        if (isIgnored()) {
+            return true;
+        }
+        String problem = instantiationProblem(loader, className);
+        return problem == null || acceptUninstantiable(problem);
+    }
+
+    /**
+     * Looks for a public no-argument constructor and a public static provider() method
+     *
+     * @return why the ServiceLoader can not instantiate the class, <code>null</code> if it can
+     */
+    private String instantiationProblem(ClassLoader loader, String className) throws MojoExecutionException {
+        try {
+            Class<?> cls = loader.loadClass(className);
+            boolean noArgConstructor = false;
+            for (Constructor<?> constructor : cls.getConstructors()) {
+                if (constructor.getParameterTypes().length == 0) {
+                    noArgConstructor = true;
+                }
+            }
+            boolean providerMethod = false;
+            for (Method method : cls.getMethods()) {
+                if ("provider".equals(method.getName()) && method.getParameterTypes().length == 0
+                        && Modifier.isStatic(method.getModifiers()) && method.getDeclaringClass() == cls) {
+                    providerMethod = true;
+                }
+            }
+            return instantiationProblem(className, noArgConstructor, providerMethod);
+        } catch (ClassNotFoundException e) {
+            throw new MojoExecutionException("Could not load " + className, e);
+        } catch (LinkageError e) {
+            return className + " could not be inspected (" + e + ")";
+        }
+    }
+
+    /**
+     * @return why the ServiceLoader can not instantiate the class, <code>null</code> if it can
+     */
+    private String instantiationProblem(String className, boolean noArgConstructor, boolean providerMethod) {
+        if (noArgConstructor || (providerMethod && moduleProvides)) {
+            return null;
+        }
+        if (providerMethod) {
+            return className + " has no public no-argument constructor, its provider() method is only used"
+                    + " for the provides directives of a module";
+        }
+        return className + " has no public no-argument constructor or public static provider() method";
+    }
+
+    /**
+     * @param problem why the ServiceLoader can not instantiate the implementation
+     * @return true if the class is to be registered anyway
+     * @throws MojoExecutionException if the build should fail
+     */
+    private boolean acceptUninstantiable(String problem) throws MojoExecutionException {
+        if (mode == null || WARN.equals(mode)) {
+            log.warn(problem + ", the ServiceLoader will fail to instantiate it");
+            return true;
+        } else if (EXCLUDE.equals(mode)) {
+            log.info("Excluding a provider, " + problem);
+            return false;
+        } else if (FAIL.equals(mode)) {
+            throw new MojoExecutionException(problem);
+        }
+        throw new MojoExecutionException("Unknown providerValidation " + mode + ", use " + IGNORE
+                + ", " + WARN + ", " + EXCLUDE + " or " + FAIL);
+    }
+}
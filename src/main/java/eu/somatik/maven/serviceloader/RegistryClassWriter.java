@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates the class file of a provider registry: a class with a single method
+ * <code>public static &lt;S&gt; List&lt;S&gt; load(Class&lt;S&gt; service)</code> that compares the
+ * name of the service with each generated service file and returns new instances of its
+ * implementations, in the order of the service file, or an empty list for any other service.
+ *
+ * The class is written for Java 5 so it needs no stack map frames and runs on every JVM the
+ * plugin supports.
+ */
+final class RegistryClassWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_5 = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int LDC_W = 0x13;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IFEQ = 0x99;
+    private static final int ARETURN = 0xb0;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb;
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<String, Integer>();
+    private int constantCount = 1;
+
+    private RegistryClassWriter() {
+    }
+
+    /**
+     * @param className the binary name of the registry class
+     * @param services the implementations per service, in the order they are to be returned
+     * @return the class file
+     * @throws IOException if the services do not fit in a single method
+     */
+    static byte[] generate(String className, Map<String, ? extends Collection<String>> services) throws IOException {
+        return new RegistryClassWriter().write(className, services);
+    }
+
+    private byte[] write(String className, Map<String, ? extends Collection<String>> services) throws IOException {
+        int thisClass = classConstant(internalName(className));
+        int superClass = classConstant("java/lang/Object");
+        int getName = methodConstant(CONSTANT_METHODREF, "java/lang/Class", "getName", "()Ljava/lang/String;");
+        int equals = methodConstant(CONSTANT_METHODREF, "java/lang/String", "equals", "(Ljava/lang/Object;)Z");
+        int arrayList = classConstant("java/util/ArrayList");
+        int arrayListInit = methodConstant(CONSTANT_METHODREF, "java/util/ArrayList", "<init>", "()V");
+        int add = methodConstant(CONSTANT_INTERFACE_METHODREF, "java/util/List", "add", "(Ljava/lang/Object;)Z");
+        int emptyList = methodConstant(CONSTANT_METHODREF, "java/util/Collections", "emptyList", "()Ljava/util/List;");
+
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        DataOutputStream codeOut = new DataOutputStream(code);
+        for (Map.Entry<String, ? extends Collection<String>> service : services.entrySet()) {
+            codeOut.writeByte(ALOAD_0);
+            codeOut.writeByte(INVOKEVIRTUAL);
+            codeOut.writeShort(getName);
+            codeOut.writeByte(LDC_W);
+            codeOut.writeShort(stringConstant(service.getKey()));
+            codeOut.writeByte(INVOKEVIRTUAL);
+            codeOut.writeShort(equals);
+            ByteArrayOutputStream list = new ByteArrayOutputStream();
+            DataOutputStream listOut = new DataOutputStream(list);
+            listOut.writeByte(NEW);
+            listOut.writeShort(arrayList);
+            listOut.writeByte(DUP);
+            listOut.writeByte(INVOKESPECIAL);
+            listOut.writeShort(arrayListInit);
+            for (String implementation : service.getValue()) {
+                String internalName = internalName(implementation);
+                listOut.writeByte(DUP);
+                listOut.writeByte(NEW);
+                listOut.writeShort(classConstant(internalName));
+                listOut.writeByte(DUP);
+                listOut.writeByte(INVOKESPECIAL);
+                listOut.writeShort(methodConstant(CONSTANT_METHODREF, internalName, "<init>", "()V"));
+                listOut.writeByte(INVOKEINTERFACE);
+                listOut.writeShort(add);
+                listOut.writeByte(2);
+                listOut.writeByte(0);
+                listOut.writeByte(POP);
+            }
+            listOut.writeByte(ARETURN);
+            listOut.flush();
+            // the offset is relative to the ifeq instruction and skips the list of this service
+            int branch = 3 + list.size();
+            if (branch > Short.MAX_VALUE) {
+                throw new IOException("Too many implementations of " + service.getKey() + " for a registry class");
+            }
+            codeOut.writeByte(IFEQ);
+            codeOut.writeShort(branch);
+            codeOut.flush();
+            list.writeTo(code);
+            if (code.size() > MAX_CODE_LENGTH) {
+                throw new IOException("Too many implementations for a registry class");
+            }
+        }
+        codeOut.writeByte(INVOKESTATIC);
+        codeOut.writeShort(emptyList);
+        codeOut.writeByte(ARETURN);
+        if (code.size() > MAX_CODE_LENGTH) {
+            throw new IOException("Too many implementations for a registry class");
+        }
+
+        int codeName = utf8Constant("Code");
+        int signatureName = utf8Constant("Signature");
+        int methodName = utf8Constant("load");
+        int methodDescriptor = utf8Constant("(Ljava/lang/Class;)Ljava/util/List;");
+        int methodSignature = utf8Constant("<S:Ljava/lang/Object;>(Ljava/lang/Class<TS;>;)Ljava/util/List<TS;>;");
+        if (constantCount > 0xFFFF) {
+            throw new IOException("Too many implementations for a registry class");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(JAVA_5);
+        out.writeShort(constantCount);
+        poolOut.flush();
+        pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(1); // methods
+        out.writeShort(ACC_PUBLIC | ACC_STATIC);
+        out.writeShort(methodName);
+        out.writeShort(methodDescriptor);
+        out.writeShort(2); // attributes
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + code.size() + 2 + 2);
+        out.writeShort(4); // max stack: list, list, implementation, implementation
+        out.writeShort(1); // max locals: the service
+        out.writeInt(code.size());
+        codeOut.flush();
+        code.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+        out.writeShort(signatureName);
+        out.writeInt(2);
+        out.writeShort(methodSignature);
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+            index = add("U" + value);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        return reference(CONSTANT_CLASS, utf8Constant(internalName));
+    }
+
+    private int stringConstant(String value) throws IOException {
+        return reference(CONSTANT_STRING, utf8Constant(value));
+    }
+
+    private int methodConstant(int tag, String owner, String name, String descriptor) throws IOException {
+        int ownerIndex = classConstant(owner);
+        int nameAndType = reference(CONSTANT_NAME_AND_TYPE, utf8Constant(name), utf8Constant(descriptor));
+        return reference(tag, ownerIndex, nameAndType);
+    }
+
+    private int reference(int tag, int... indexes) throws IOException {
+        StringBuilder key = new StringBuilder().append(tag);
+        for (int index : indexes) {
+            key.append(':').append(index);
+        }
+        Integer index = constants.get(key.toString());
+        if (index == null) {
+            poolOut.writeByte(tag);
+            for (int value : indexes) {
+                poolOut.writeShort(value);
+            }
+            index = add(key.toString());
+        }
+        return index;
+    }
+
+    private int add(String key) {
+        int index = constantCount++;
+        constants.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall time per phase and counters of a single execution, logged as one line and optionally
+ * stored as JSON so the reports of many modules can be compared.
+ *
+ * The counters that are updated by the scanning threads are atomic, the others are only touched
+ * by the thread running the goal.
+ */
+final class ScanReport {
+
+    static final String FINGERPRINT = "fingerprint";
+    static final String SETUP = "setup";
+    static final String SCAN = "scan";
+    static final String WRITE = "write";
+
+    private final long start = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private final Map<String, Integer> matches = new TreeMap<String, Integer>();
+    private String scanMode;
+    private boolean upToDate;
+    private long classesDiscovered;
+    private long classesReused;
+    private long classesParsed;
+    private final AtomicLong classesChecked = new AtomicLong();
+    private final AtomicLong classesLoaded = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private int filesWritten;
+    private int filesUnchanged;
+    private int filesRemoved;
+
+    /**
+     * @return the start of a phase, to be passed to {@link #end(String, long)}
+     */
+    long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since begin to a phase
+     */
+    void end(String phase, long begin) {
+        Long total = phases.get(phase);
+        phases.put(phase, (total == null ? 0L : total) + System.nanoTime() - begin);
+    }
+
+    void setScanMode(String scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    void setUpToDate() {
+        this.upToDate = true;
+    }
+
+    void classesDiscovered(long count) {
+        classesDiscovered += count;
+    }
+
+    void classesReused(long count) {
+        classesReused += count;
+    }
+
+    void classesParsed(long count) {
+        classesParsed += count;
+    }
+
+    void classChecked() {
+        classesChecked.incrementAndGet();
+    }
+
+    void classLoaded() {
+        classesLoaded.incrementAndGet();
+    }
+
+    void failure() {
+        failures.incrementAndGet();
+    }
+
+    void matches(String serviceName, int count) {
+        matches.put(serviceName, count);
+    }
+
+    void fileWritten() {
+        filesWritten++;
+    }
+
+    void fileUnchanged() {
+        filesUnchanged++;
+    }
+
+    void fileRemoved() {
+        filesRemoved++;
+    }
+
+    /**
+     * @return the report as a single line
+     */
+    String summary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Service files generated in ").append(millis(System.nanoTime() - start)).append(" ms");
+        if (upToDate) {
+            return builder.append(" (up to date)").toString();
+        }
+        builder.append(" (");
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            builder.append(separator).append(phase.getKey()).append(' ').append(millis(phase.getValue())).append(" ms");
+            separator = ", ";
+        }
+        builder.append("): ").append(classesDiscovered).append(" classes found, ")
+                .append(classesChecked.get()).append(" checked, ")
+                .append(classesReused).append(" reused, ")
+                .append(classesParsed).append(" parsed, ")
+                .append(classesLoaded.get()).append(" loaded, ")
+                .append(failures.get()).append(" failed; ")
+                .append(filesWritten).append(" files written, ")
+                .append(filesUnchanged).append(" unchanged, ")
+                .append(filesRemoved).append(" removed");
+        return builder.toString();
+    }
+
+    /**
+     * Stores the report as a JSON object
+     *
+     * @param file the report file
+     * @param project an identifier of the project, usually groupId:artifactId
+     * @throws IOException if the file can not be written
+     */
+    void write(File file, String project) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"project\": ").append(quote(project)).append(",\n");
+        json.append("  \"scanMode\": ").append(quote(scanMode)).append(",\n");
+        json.append("  \"upToDate\": ").append(upToDate).append(",\n");
+        json.append("  \"totalMillis\": ").append(millis(System.nanoTime() - start)).append(",\n");
+        json.append("  \"phaseMillis\": {");
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            json.append(separator).append("\n    ").append(quote(phase.getKey())).append(": ").append(millis(phase.getValue()));
+            separator = ",";
+        }
+        json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"classesDiscovered\": ").append(classesDiscovered).append(",\n");
+        json.append("  \"classesChecked\": ").append(classesChecked.get()).append(",\n");
+        json.append("  \"classesReused\": ").append(classesReused).append(",\n");
+        json.append("  \"classesParsed\": ").append(classesParsed).append(",\n");
+        json.append("  \"classesLoaded\": ").append(classesLoaded.get()).append(",\n");
+        json.append("  \"failures\": ").append(failures.get()).append(",\n");
+        json.append("  \"matches\": {");
+        separator = "";
+        for (Map.Entry<String, Integer> match : matches.entrySet()) {
+            json.append(separator).append("\n    ").append(quote(match.getKey())).append(": ").append(match.getValue());
+            separator = ",";
+        }
+        json.append(matches.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"filesWritten\": ").append(filesWritten).append(",\n");
+        json.append("  \"filesUnchanged\": ").append(filesUnchanged).append(",\n");
+        json.append("  \"filesRemoved\": ").append(filesRemoved).append("\n");
+        json.append("}\n");
+        ServiceFileWriter.write(file, json.toString().getBytes("UTF-8"));
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
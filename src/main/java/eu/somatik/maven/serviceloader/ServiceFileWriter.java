@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes generated files so that an unchanged file keeps its modification time and a changed file
+ * is replaced in one step, readers never see a partially written file.
+ */
+final class ServiceFileWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ServiceFileWriter() {
+    }
+
+    /**
+     * @param lines the lines of the file
+     * @return the UTF-8 encoded lines, each terminated by a newline
+     */
+    static byte[] content(Collection<String> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Writes the content to a temporary file next to the target and moves it in place, unless the
+     * target already has exactly this content.
+     *
+     * @param file the target file
+     * @param content the new content
+     * @return true if the file was written, false if it was already up to date
+     * @throws IOException if the file can not be written
+     */
+    static boolean write(File file, byte[] content) throws IOException {
+        Path target = file.toPath();
+        if (Files.isRegularFile(target) && Files.size(target) == content.length
+                && Arrays.equals(Files.readAllBytes(target), content)) {
+            return false;
+        }
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getName(), ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    /**
+     * @param file a list of files written by {@link #writeFileList(File, Collection)}
+     * @return the files in the list, empty if there is no list
+     * @throws IOException if the list can not be read
+     */
+    static List<File> readFileList(File file) throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        List<File> files = new ArrayList<File>();
+        for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+            if (line.length() > 0) {
+                files.add(new File(line));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Stores the absolute paths of the files, one per line
+     */
+    static void writeFileList(File file, Collection<File> files) throws IOException {
+        List<String> paths = new ArrayList<String>();
+        for (File listed : files) {
+            paths.add(listed.getAbsolutePath());
+        }
+        write(file, content(paths));
+    }
+}
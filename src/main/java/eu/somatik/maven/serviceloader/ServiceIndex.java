@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The configured services in a hash index, so the services a class implements are found by
+ * looking up each of its supertypes rather than by testing the class against every service. The
+ * cost per class depends on the depth of its hierarchy, not on the number of services.
+ *
+ * @param <T> the service type, a class name or a loaded class
+ */
+final class ServiceIndex<T> {
+
+    private final List<T> services;
+    private final Map<T, Integer> positions;
+
+    /**
+     * @param services the services in the configured order
+     */
+    ServiceIndex(List<T> services) {
+        this.services = services;
+        this.positions = new HashMap<T, Integer>(services.size() * 2);
+        for (int i = services.size() - 1; i >= 0; i--) {
+            positions.put(services.get(i), i);
+        }
+    }
+
+    List<T> getServices() {
+        return services;
+    }
+
+    /**
+     * @param supertypes all supertypes of a class
+     * @return the services among the supertypes, in the configured order
+     */
+    List<T> match(Collection<? extends T> supertypes) {
+        int[] found = new int[supertypes.size()];
+        int count = 0;
+        for (T supertype : supertypes) {
+            Integer position = positions.get(supertype);
+            if (position != null) {
+                found[count++] = position;
+            }
+        }
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(found, 0, count);
+        List<T> matched = new ArrayList<T>(count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || found[i] != found[i - 1]) {
+                matched.add(services.get(found[i]));
+            }
+        }
+        return matched;
+    }
+}
@@ -15,33 +15,42 @@
  */
 package eu.somatik.maven.serviceloader;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import javax.inject.Inject;
+
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
-import org.codehaus.plexus.util.DirectoryScanner;
-import org.codehaus.plexus.util.SelectorUtils;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 /**
@@ -56,8 +65,19 @@ import org.sonatype.plexus.build.incremental.BuildContext;
         threadSafe = true)
 public class ServiceloaderMojo extends AbstractMojo {
 
+    static final String SCAN_MODE_BYTECODE = "bytecode";
+    static final String SCAN_MODE_REFLECTION = "reflection";
+    static final String MODULE_INFO_IGNORE = "ignore";
+    static final String MODULE_INFO_VERIFY = "verify";
+    static final String MODULE_INFO_UPDATE = "update";
+
+    private static final String MODULE_DESCRIPTOR = "module-info.class";
+    private static final String[] PRIORITY_ANNOTATIONS = {"javax.annotation.Priority", "jakarta.annotation.Priority"};
 
-    @Component
+    private static final String[] NO_SERVICES = new String[0];
+    private static final int CHECK_BATCH_SIZE = 256;
+
+    @Inject
     private BuildContext buildContext;
 
     /**
@@ -83,8 +103,10 @@ public class ServiceloaderMojo extends AbstractMojo {
     private File outputDirectory;
 
     /**
-     * The service interfaces to generate service files for
-     *
+     * The service interfaces to generate service files for. An entry with <code>*</code> or
+     * <code>?</code>, such as <code>com.acme.spi.*</code>, stands for all public interfaces with a
+     * matching name and <code>@com.acme.Spi</code> for all public interfaces annotated with
+     * <code>com.acme.Spi</code>, in the class folder or on the compile classpath.
      */
     @Parameter
     private String[] services;
@@ -95,9 +117,185 @@ public class ServiceloaderMojo extends AbstractMojo {
     @Parameter
     private String[] excludes;
 
+    /**
+     * Only walk these packages, and the packages nested in them, when looking for implementations.
+     * Supertypes outside these packages are still resolved.
+     */
+    @Parameter
+    private String[] scanPackages;
+
+    /**
+     * Dependencies to search for implementations as well, as <code>groupId:artifactId</code>
+     * patterns that may use <code>*</code> and <code>?</code>. The implementations in their jars are
+     * added to the generated service files, the includes, excludes and scanPackages apply to them
+     * too. Only used by the bytecode scan.
+     */
+    @Parameter
+    private String[] scanDependencies;
+
     @Parameter(defaultValue ="true")
     private boolean failOnMissingServiceClass;
 
+    /**
+     * How the compiled classes are inspected: <code>bytecode</code> reads the class files directly
+     * and only loads a class when its hierarchy can not be resolved from bytecode,
+     * <code>reflection</code> loads every class through a class loader.
+     */
+    @Parameter(property = "serviceloader.scanMode", defaultValue = SCAN_MODE_BYTECODE)
+    private String scanMode;
+
+    /**
+     * Keep an index of the class headers of every dependency jar on disk, so supertypes in
+     * unchanged jars are resolved without reading the jar again. Only used by the bytecode scan.
+     */
+    @Parameter(property = "serviceloader.jarIndex", defaultValue = "true")
+    private boolean jarIndex;
+
+    /**
+     * Where the dependency jar indexes are stored, shared between projects and builds. It is not
+     * cleaned by <code>mvn clean</code>, the indexes of jars that no longer exist are deleted when
+     * a new index is stored.
+     */
+    @Parameter(property = "serviceloader.jarIndexDirectory", defaultValue = "${user.home}/.m2/serviceloader-index")
+    private File jarIndexDirectory;
+
+    /**
+     * How many megabytes of jar indexes are kept in memory for the next executions in the same JVM,
+     * like the other modules of the reactor or the next build of a Maven daemon. 0 disables it.
+     * The memory is shared by all executions in the JVM, the largest value any of them asks for
+     * applies to all of them. The limit never shrinks: with the Maven daemon it holds until the
+     * daemon stops.
+     */
+    @Parameter(property = "serviceloader.jarIndexMemory", defaultValue = "64")
+    private int jarIndexMemory;
+
+    /**
+     * Only check the classes that changed since the previous build, the results of the other classes
+     * are kept in the work directory. Only used by the bytecode scan.
+     */
+    @Parameter(property = "serviceloader.incremental", defaultValue = "true")
+    private boolean incremental;
+
+    /**
+     * Where the plugin keeps its state between builds
+     */
+    @Parameter(defaultValue = "${project.build.directory}/serviceloader", required = true)
+    private File workDirectory;
+
+    /**
+     * Skip the execution when the configuration, the classpath and the compiled classes did not
+     * change since the last successful execution and the service files are still there.
+     * Only used by the bytecode scan.
+     */
+    @Parameter(property = "serviceloader.upToDateCheck", defaultValue = "true")
+    private boolean upToDateCheck;
+
+    /**
+     * The number of threads used to check the compiled classes, 0 to use one per available processor.
+     * Only used by the bytecode scan.
+     */
+    @Parameter(property = "serviceloader.scanThreads", defaultValue = "1")
+    private int scanThreads;
+
+    /**
+     * Where to store a JSON report with the time spent in each phase and the number of classes and
+     * files handled, for example <code>${project.build.directory}/serviceloader-report.json</code>.
+     * No report is written when not set.
+     */
+    @Parameter(property = "serviceloader.reportFile")
+    private File reportFile;
+
+    /**
+     * Load the dependency jars through a class loader that is shared with the other executions in
+     * the same JVM that have the same jars, for example the modules of a reactor or the builds of a
+     * Maven daemon. Only the project's class folder gets a loader of its own. A classpath with
+     * other directories, such as the output folders of other reactor modules, is not shared.
+     */
+    @Parameter(property = "serviceloader.shareClassLoaders", defaultValue = "false")
+    private boolean shareClassLoaders;
+
+    /**
+     * The binary name of a class to generate next to the service files, for example
+     * <code>com.foo.ServiceRegistry</code>. Its <code>load(Class)</code> method returns new instances
+     * of the implementations of a service without the classpath scan of the ServiceLoader. Not
+     * generated when not set.
+     */
+    @Parameter(property = "serviceloader.registryClass")
+    private String registryClass;
+
+    /**
+     * Also write GraalVM native-image metadata for the generated service files: a
+     * reflect-config.json registering the constructors of the implementations and a
+     * resource-config.json including the service files.
+     */
+    @Parameter(property = "serviceloader.nativeImage", defaultValue = "false")
+    private boolean nativeImage;
+
+    /**
+     * Where to write the native-image metadata
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}/META-INF/native-image/${project.groupId}/${project.artifactId}")
+    private File nativeImageDirectory;
+
+    /**
+     * What to do with the <code>provides</code> directives of a compiled module-info.class:
+     * <code>ignore</code> them, <code>verify</code> that they list the implementations of the
+     * generated service files that are part of the module, or <code>update</code> them.
+     */
+    @Parameter(property = "serviceloader.moduleInfo", defaultValue = MODULE_INFO_IGNORE)
+    private String moduleInfo;
+
+    /**
+     * Also write a <code>META-INF/serviceloader/&lt;service&gt;.index</code> properties file for each
+     * service file with the interfaces, priority and annotations of every provider, read from their
+     * class files.
+     */
+    @Parameter(property = "serviceloader.providerIndex", defaultValue = "false")
+    private boolean providerIndex;
+
+    /**
+     * Provider class name patterns, as for the includes, that are written first in this order. The
+     * ServiceLoader instantiates the providers in the order of the service file.
+     */
+    @Parameter
+    private String[] providerOrder;
+
+    /**
+     * Order the providers by the value of their <code>javax.annotation.Priority</code> or
+     * <code>jakarta.annotation.Priority</code> annotation, lowest first, after the providerOrder.
+     * Providers without one come last. Otherwise they are sorted by name.
+     */
+    @Parameter(property = "serviceloader.priorityOrder", defaultValue = "false")
+    private boolean priorityOrder;
+
+    /**
+     * What to do with an implementation the ServiceLoader can not instantiate, as it has no public
+     * no-argument constructor: <code>ignore</code>, <code>warn</code>, <code>exclude</code> it from
+     * the service files or <code>fail</code> the build. A public static <code>provider()</code>
+     * method only counts when moduleInfo keeps the provides directives of a module descriptor, the
+     * ServiceLoader does not use it for service files on the class path.
+     */
+    @Parameter(property = "serviceloader.providerValidation", defaultValue = ProviderValidation.WARN)
+    private String providerValidation;
+
+    /**
+     * Annotation types, such as <code>com.google.auto.service.AutoService</code>, that mark a class
+     * as a provider of the services in their <code>value</code> element. Annotated classes are added
+     * to the service files of those services, whether or not the services are configured. Only used
+     * by the bytecode scan.
+     */
+    @Parameter
+    private String[] providerAnnotations;
+
+    private ProjectClassLoader fallbackLoader;
+
+    private ProviderValidation validation;
+
+    /** checks the classes for the providerAnnotations, <code>null</code> when there are none */
+    private AnnotatedProviders annotatedProviders;
+
+    private ScanReport report = new ScanReport();
+
     public MavenProject getProject() {
         return project;
     }
@@ -106,7 +304,11 @@ public class ServiceloaderMojo extends AbstractMojo {
         return services;
     }
 
-    private File getClassFolder() {
+    String[] getScanDependencies() {
+        return scanDependencies;
+    }
+
+    File getClassFolder() {
         return classFolder;
     }
 
@@ -114,6 +316,51 @@ public class ServiceloaderMojo extends AbstractMojo {
         return compileClasspath;
     }
 
+    /**
+     * The whole classpath, used to load classes and to list the classpath types
+     *
+     * @return the compile classpath elements
+     * @throws MojoExecutionException if the classpath can not be resolved
+     */
+    List<String> resolveClasspath() throws MojoExecutionException {
+        return getCompileClasspath();
+    }
+
+    /**
+     * @return the number of classpath elements, without resolving them
+     * @throws MojoExecutionException if the classpath can not be determined
+     */
+    int getClasspathSize() throws MojoExecutionException {
+        return getCompileClasspath().size();
+    }
+
+    /**
+     * A single classpath element, for lookups that walk the classpath in order and stop at the
+     * element holding the class
+     *
+     * @param index the position on the classpath
+     * @return the element or <code>null</code> if it has no file
+     * @throws MojoExecutionException if the element can not be resolved
+     */
+    String resolveClasspathElement(int index) throws MojoExecutionException {
+        return getCompileClasspath().get(index);
+    }
+
+    /**
+     * Adds the classpath to a fingerprint of the inputs, without resolving anything that is not
+     * resolved yet
+     */
+    void addClasspath(Fingerprint fingerprint) {
+        for (String element : getCompileClasspath()) {
+            File file = new File(element);
+            if (file.isFile()) {
+                fingerprint.addFile(file);
+            } else {
+                fingerprint.add(file.getAbsolutePath());
+            }
+        }
+    }
+
     private File getOutputDirectory() {
         return outputDirectory;
     }
@@ -130,249 +377,1506 @@ public class ServiceloaderMojo extends AbstractMojo {
     public void execute() throws MojoExecutionException {
         if (skipProject()) {
             getLog().info("POM project detected; skipping");
-        }else {
-            URLClassLoader classLoader = new URLClassLoader(generateClassPathUrls());
-            List<Class<?>> interfaceClasses = loadServiceClasses(classLoader);
-            Map<String, List<String>> serviceImplementations = findImplementations(classLoader, interfaceClasses);
+            return;
+        }
+        report = new ScanReport();
+        validation = new ProviderValidation(providerValidation, usesModuleProvides(), getLog());
+        if (isReflectionScan()) {
+            report.setScanMode(SCAN_MODE_REFLECTION);
+            executeReflectionScan();
+        } else {
+            report.setScanMode(SCAN_MODE_BYTECODE);
+            executeBytecodeScan();
+        }
+        getLog().info(report.summary());
+        writeReport();
+    }
+
+    private void executeReflectionScan() throws MojoExecutionException {
+        if (hasProviderAnnotations()) {
+            getLog().warn("providerAnnotations are only used by the bytecode scan");
+        }
+        long begin = report.begin();
+        ProjectClassLoader classLoader = createClassLoader();
+        try {
+            List<Class<?>> interfaceClasses = loadServiceClasses(classLoader.getLoader());
+            report.end(ScanReport.SETUP, begin);
+            begin = report.begin();
+            Map<String, List<String>> serviceImplementations = findImplementations(classLoader.getLoader(), interfaceClasses);
+            report.end(ScanReport.SCAN, begin);
             writeServiceFiles(serviceImplementations);
+        } finally {
+            close(classLoader);
+        }
+    }
+
+    private void executeBytecodeScan() throws MojoExecutionException {
+        File upToDateFile = getUpToDateFile();
+        String fingerprint = null;
+        if (upToDateFile != null) {
+            long begin = report.begin();
+            fingerprint = inputFingerprint();
+            UpToDateState previous = UpToDateState.read(upToDateFile);
+            report.end(ScanReport.FINGERPRINT, begin);
+            if (previous != null && previous.isUpToDate(fingerprint)) {
+                getLog().info("Service files are up to date");
+                report.setUpToDate();
+                return;
+            }
+            upToDateFile.delete();
+        }
+        long begin = report.begin();
+        JarIndexCache indexCache = null;
+        if (jarIndex && jarIndexDirectory != null) {
+            JarIndexMemoryCache memoryCache = null;
+            if (jarIndexMemory > 0) {
+                memoryCache = JarIndexMemoryCache.shared();
+                memoryCache.requestLimit(jarIndexMemory * 1024L * 1024L);
+            }
+            indexCache = new JarIndexCache(jarIndexDirectory, memoryCache, getLog());
+        }
+        ClassHierarchy hierarchy = createHierarchy(indexCache);
+        try {
+            List<String> serviceNames = resolveServiceTypes(hierarchy);
+            report.end(ScanReport.SETUP, begin);
+            begin = report.begin();
+            Map<String, List<String>> serviceImplementations = serviceNames.isEmpty() && !hasProviderAnnotations()
+                    ? new HashMap<String, List<String>>()
+                    : findImplementations(hierarchy, serviceNames);
+            report.end(ScanReport.SCAN, begin);
+            writeServiceFiles(serviceImplementations, hierarchy);
+            if (upToDateFile != null) {
+                storeUpToDateState(upToDateFile, fingerprint, hierarchy, serviceImplementations.keySet());
+            }
+        } finally {
+            report.classesParsed(hierarchy.getParsedCount());
+            close(hierarchy);
+            if (fallbackLoader != null) {
+                close(fallbackLoader);
+                fallbackLoader = null;
+            }
+        }
+    }
+
+    private void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            getLog().warn(e);
+        }
+    }
+
+    private void writeReport() {
+        if (reportFile == null) {
+            return;
+        }
+        String projectId = project == null ? null : project.getGroupId() + ":" + project.getArtifactId();
+        try {
+            report.write(reportFile, projectId);
+        } catch (IOException e) {
+            getLog().warn("Could not write report " + reportFile, e);
+        }
+    }
+
+    /**
+     * @return the directories on the classpath, without resolving anything that is not resolved yet
+     */
+    List<File> getClasspathDirectories() {
+        List<File> directories = new ArrayList<File>();
+        for (String element : getCompileClasspath()) {
+            File file = new File(element);
+            if (file.isDirectory()) {
+                directories.add(file);
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Fingerprint of everything the generated files depend on: the configuration, the dependency
+     * jars and the names, sizes and modification times of all compiled classes. With wildcard
+     * services the classes in the classpath directories are added as well, an interface added to
+     * one of them changes the services.
+     */
+    private String inputFingerprint() throws MojoExecutionException {
+        final Fingerprint fingerprint = new Fingerprint()
+                .add(getServices())
+                .add(includes)
+                .add(excludes)
+                .add(scanPackages)
+                .add(scanDependencies)
+                .add(String.valueOf(failOnMissingServiceClass))
+                .add(getOutputDirectory().getAbsolutePath())
+                .add(registryClass)
+                .add(String.valueOf(nativeImage))
+                .add(nativeImageDirectory == null ? null : nativeImageDirectory.getAbsolutePath())
+                .add(moduleInfo)
+                .add(String.valueOf(providerIndex))
+                .add(providerOrder)
+                .add(String.valueOf(priorityOrder))
+                .add(providerValidation)
+                .add(providerAnnotations);
+        File descriptor = new File(getClassFolder(), MODULE_DESCRIPTOR);
+        if (moduleInfo != null && !MODULE_INFO_IGNORE.equals(moduleInfo) && descriptor.isFile()) {
+            fingerprint.addFile(descriptor);
+        }
+        addClasspath(fingerprint);
+        walkClasses(getClassFolder(), new ClassFolderWalker.Visitor() {
+            public void visitClass(String className, long lastModified, long length) {
+                // the generated registry class is an output
+                if (!className.equals(registryClass)) {
+                    fingerprint.add(className).add(lastModified).add(length);
+                }
+            }
+        });
+        WildcardServices wildcards = new WildcardServices(getServices());
+        if (!wildcards.isEmpty()) {
+            List<String> packages = wildcards.getPackages();
+            ClassFolderWalker.Visitor visitor = new ClassFolderWalker.Visitor() {
+                public void visitClass(String className, long lastModified, long length) {
+                    fingerprint.add(className).add(lastModified).add(length);
+                }
+            };
+            for (File directory : getClasspathDirectories()) {
+                fingerprint.add(directory.getAbsolutePath());
+                if (!directory.isDirectory()) {
+                    continue;
+                }
+                try {
+                    ClassFolderWalker.walk(directory, packages, visitor);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Could not scan " + directory, e);
+                }
+            }
+        }
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Stores what this execution depended on. Nothing is stored when a class could not be resolved
+     * as it might show up in a classpath directory later on.
+     */
+    private void storeUpToDateState(File upToDateFile, String fingerprint, ClassHierarchy hierarchy,
+                                    Set<String> serviceNames) {
+        if (hierarchy.hasMissing()) {
+            upToDateFile.delete();
+            return;
+        }
+        // every supertype that was not part of the scan, it might live outside of the scanned packages
+        List<String> scanRoots = getScanRoots();
+        List<File> externalFiles = new ArrayList<File>();
+        for (Entry<String, File> sourceFile : hierarchy.getSourceFiles().entrySet()) {
+            if (!isScanned(sourceFile.getKey(), sourceFile.getValue(), scanRoots)) {
+                externalFiles.add(sourceFile.getValue());
+            }
+        }
+        List<File> outputs = new ArrayList<File>();
+        for (String serviceName : serviceNames) {
+            outputs.add(new File(getOutputDirectory(), serviceName));
+            if (providerIndex) {
+                outputs.add(ProviderIndex.file(getClassFolder(), serviceName));
+            }
+        }
+        if (registryClass != null && registryClass.length() != 0) {
+            outputs.add(new File(getClassFolder(), registryClass.replace('.', File.separatorChar) + ".class"));
+        }
+        outputs.addAll(getNativeImageFiles());
+        UpToDateState state = new UpToDateState(fingerprint);
+        state.addExternalFiles(externalFiles);
+        state.addOutputs(outputs);
+        try {
+            state.write(upToDateFile);
+        } catch (IOException e) {
+            getLog().warn("Could not store up to date state " + upToDateFile, e);
+        }
+    }
+
+    /**
+     * @return true if the class file is one the class folder walk visits
+     */
+    private boolean isScanned(String className, File sourceFile, List<String> scanRoots) {
+        File classFile = new File(getClassFolder(), className.replace('.', File.separatorChar) + ".class");
+        if (!classFile.getAbsoluteFile().equals(sourceFile.getAbsoluteFile())) {
+            return false;
+        }
+        if (scanRoots == null) {
+            return true;
+        }
+        for (String scanRoot : scanRoots) {
+            if (className.startsWith(scanRoot + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private File getUpToDateFile() {
+        if (!upToDateCheck || workDirectory == null) {
+            return null;
+        }
+        return new File(workDirectory, "uptodate.state");
+    }
+
+    private boolean isReflectionScan() throws MojoExecutionException {
+        if (scanMode == null || SCAN_MODE_BYTECODE.equals(scanMode)) {
+            return false;
+        }
+        if (SCAN_MODE_REFLECTION.equals(scanMode)) {
+            return true;
         }
+        throw new MojoExecutionException("Unknown scanMode '" + scanMode + "', expected "
+                + SCAN_MODE_BYTECODE + " or " + SCAN_MODE_REFLECTION);
     }
 
     /**
-     * Writes the output for the service files to disk
+     * Writes the output for the service files to disk. The implementations are sorted and a file
+     * is only replaced when its content changed. Service files generated by a previous execution
+     * for services that are no longer configured are removed.
      *
      * @param serviceImplementations
      * @throws MojoExecutionException
      */
-    private void writeServiceFiles(
+    void writeServiceFiles(
             Map<String, List<String>> serviceImplementations)
             throws MojoExecutionException {
+        writeServiceFiles(serviceImplementations, null);
+    }
+
+    /**
+     * @param serviceImplementations the implementations per service
+     * @param hierarchy the hierarchy of the scan to describe the providers with, <code>null</code> to
+     *                  read the class files again when the provider index is enabled
+     */
+    private void writeServiceFiles(Map<String, List<String>> serviceImplementations, ClassHierarchy hierarchy)
+            throws MojoExecutionException {
+        boolean describeProviders = providerIndex || priorityOrder;
+        boolean instantiateProviders = (registryClass != null && registryClass.length() != 0) || !getNativeImageFiles().isEmpty();
+        if ((describeProviders || instantiateProviders) && hierarchy == null) {
+            ClassHierarchy providerHierarchy = createHierarchy(null);
+            try {
+                writeServiceFiles(serviceImplementations, providerHierarchy);
+            } finally {
+                close(providerHierarchy);
+            }
+            return;
+        }
 
+        long begin = report.begin();
         File parentFolder = getOutputDirectory();
         if (!parentFolder.exists()) {
             parentFolder.mkdirs();
         }
-        for (Entry<String, List<String>> interfaceClassName : serviceImplementations.entrySet()) {
+        Set<File> serviceFiles = new LinkedHashSet<File>();
+        Map<String, List<String>> services = new TreeMap<String, List<String>>();
+        Map<String, List<AnnotationInfo>> annotations = new HashMap<String, List<AnnotationInfo>>();
+        ProviderOrder order = new ProviderOrder(providerOrder);
+        for (Entry<String, List<String>> interfaceClassName : new TreeMap<String, List<String>>(serviceImplementations).entrySet()) {
             File serviceFile = new File(parentFolder, interfaceClassName.getKey());
             getLog().info("Generating service file " + serviceFile.getAbsolutePath());
-            FileWriter writer = null;
+            Set<String> uniqueNames = new TreeSet<String>(interfaceClassName.getValue());
+            Map<String, Integer> priorities = new HashMap<String, Integer>();
+            if (describeProviders) {
+                readAnnotations(hierarchy, uniqueNames, annotations);
+            }
+            if (priorityOrder) {
+                for (String implementationClassName : uniqueNames) {
+                    Integer priority = getPriority(implementationClassName, annotations.get(implementationClassName));
+                    if (priority != null) {
+                        priorities.put(implementationClassName, priority);
+                    }
+                }
+            }
+            List<String> implementationClassNames = order.sort(uniqueNames, priorities);
+            services.put(interfaceClassName.getKey(), implementationClassNames);
+            report.matches(interfaceClassName.getKey(), implementationClassNames.size());
+            for (String implementationClassName : implementationClassNames) {
+                getLog().info("  + " + implementationClassName);
+            }
+            byte[] content = ServiceFileWriter.content(implementationClassNames);
+            FlightRecorder.Span span = FlightRecorder.fileWrite(serviceFile, content.length);
             try {
-                writer = new FileWriter(serviceFile);
-                for (String implementationClassName : interfaceClassName.getValue()) {
-                    getLog().info("  + " + implementationClassName);
-                    writer.write(implementationClassName);
-                    writer.write('\n');
+                if (ServiceFileWriter.write(serviceFile, content)) {
+                    buildContext.refresh(serviceFile);
+                    report.fileWritten();
+                } else {
+                    report.fileUnchanged();
+                    getLog().debug("Service file " + serviceFile + " is unchanged");
                 }
-                buildContext.refresh(serviceFile);
             } catch (IOException e) {
                 throw new MojoExecutionException("Error creating file " + serviceFile, e);
             } finally {
-                if (writer != null) {
-                    try {
-                        writer.close();
-                    } catch (IOException e) {
-                        getLog().error(e);
-                    }
-                }
+                span.finish();
+            }
+            serviceFiles.add(serviceFile.getAbsoluteFile());
+            if (providerIndex) {
+                serviceFiles.add(writeProviderIndex(interfaceClassName.getKey(), implementationClassNames,
+                        hierarchy, annotations).getAbsoluteFile());
             }
         }
+        Map<String, List<String>> constructible = instantiateProviders ? constructibleProviders(services, hierarchy) : services;
+        if (registryClass != null && registryClass.length() != 0) {
+            serviceFiles.add(writeRegistryClass(constructible).getAbsoluteFile());
+        }
+        for (File metadataFile : writeNativeImageMetadata(constructible)) {
+            serviceFiles.add(metadataFile.getAbsoluteFile());
+        }
+        processModuleDescriptor(services);
+        removeStaleServiceFiles(serviceFiles);
+        report.end(ScanReport.WRITE, begin);
     }
 
     /**
-     * Loads all interfaces using the provided ClassLoader
+     * Writes the provider index of a service, see {@link ProviderIndex}
      *
-     * @param loader the classloader
-     * @return thi List of Interface classes
-     * @throws MojoExecutionException
-     *             is the interfaces are not interfaces or can not be found on
-     *             the classpath
+     * @return the index file
      */
-    private List<Class<?>> loadServiceClasses(ClassLoader loader)
+    private File writeProviderIndex(String serviceName, List<String> implementations,
+                                    ClassHierarchy hierarchy, Map<String, List<AnnotationInfo>> annotations)
             throws MojoExecutionException {
-        List<Class<?>> serviceClasses = new ArrayList<Class<?>>();
-        for (String serviceClassName : getServices()) {
-            try {
-                Class<?> serviceClass = loader.loadClass(serviceClassName);
-                serviceClasses.add(serviceClass);
-            } catch (ClassNotFoundException ex) {
-                if (failOnMissingServiceClass) {
-                    throw new MojoExecutionException("Could not load class: " + serviceClassName, ex);
-                } else {
-                    getLog().info("Skipping missing service class: " + serviceClassName);
+        File indexFile = ProviderIndex.file(getClassFolder(), serviceName);
+        ProviderIndex index = new ProviderIndex(serviceName);
+        try {
+            for (String implementation : implementations) {
+                index.add(implementation, ProviderIndex.INTERFACES, getServiceInterfaces(hierarchy, implementation, serviceName));
+                for (AnnotationInfo annotation : annotations.get(implementation)) {
+                    if (Arrays.asList(PRIORITY_ANNOTATIONS).contains(annotation.getType())) {
+                        index.add(implementation, ProviderIndex.PRIORITY, annotation.get("value"));
+                    }
+                    index.add(implementation, "@" + annotation.getType(), Collections.<String>emptyList());
+                    for (Entry<String, List<String>> value : annotation.getValues().entrySet()) {
+                        index.add(implementation, "@" + annotation.getType() + "." + value.getKey(), value.getValue());
+                    }
                 }
             }
+            writeGeneratedFile(indexFile, index.toBytes());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error creating provider index " + indexFile, e);
         }
-        return serviceClasses;
+        return indexFile;
     }
 
     /**
-     * Finds all implementations of interfaces in a folder
-     *
-     * @param loader
-     * @param interfaceClasses
-     * @return
-     * @throws MojoExecutionException
+     * Reads the class level annotations of the implementations that were not read before
      */
-    private Map<String, List<String>> findImplementations(ClassLoader loader,
-                                                          List<Class<?>> interfaceClasses) throws MojoExecutionException {
-        Map<String, List<String>> serviceImplementations = new HashMap<String, List<String>>();
-        for (Class<?> interfaceClass: interfaceClasses) {
-            serviceImplementations.put(interfaceClass.getName(), new ArrayList<String>());
-        }
-        getLog().info("Scanning generated classes for implementations...");
-        File classFolder = getClassFolder();
-        List<String> classNames = listCompiledClasses(classFolder);
-        // List<String> classNames = listCompiledClassesRegex( classFolder );
-        for (String className : classNames) {
-            try {
-                if(getLog().isDebugEnabled()){
-                    getLog().debug("checking class: " + className);
-                }
-                Class<?> cls = loader.loadClass(className);
-                int mods = cls.getModifiers();
-                if (!cls.isAnonymousClass() && !cls.isInterface()
-                        && !cls.isEnum() && !Modifier.isAbstract(mods)
-                        && Modifier.isPublic(mods)) {
-                    for (Class<?> interfaceCls : interfaceClasses) {
-                        if (!interfaceCls.equals(cls) && interfaceCls.isAssignableFrom(cls)) {
-
-                            // if the includes section isn't empty, we need to respect the choice and only include the items that are shown there.
-                            if (includes == null || includes.length == 0) {
-                                serviceImplementations.get(interfaceCls.getName()).add(className);
-                            } else {
-                                for ( String include : includes )
-                                {
-                                    if(SelectorUtils.match(include, className)) {
-                                        serviceImplementations.get(interfaceCls.getName()).add(className);
-                                    }
-                                }
-                            }
-
-                        }
-                    }
+    private static void readAnnotations(ClassHierarchy hierarchy, Collection<String> implementations,
+                                        Map<String, List<AnnotationInfo>> annotations) throws MojoExecutionException {
+        for (String implementation : implementations) {
+            if (!annotations.containsKey(implementation)) {
+                try {
+                    annotations.put(implementation, hierarchy.readAnnotations(implementation));
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Could not read the annotations of " + implementation, e);
                 }
-            } catch (ClassNotFoundException e1) {
-                getLog().warn(e1);
-            } catch (NoClassDefFoundError e2) {
-                getLog().warn(e2);
             }
-
         }
+    }
 
-        // in the next iteration we start to process with the excludes
-        if (excludes != null && excludes.length != 0) {
-            Set<Entry<String,List<String>>> entrySet = serviceImplementations.entrySet();
-            for ( Entry<String, List<String>> entry : entrySet )
-            {
-                classNames = entry.getValue();
-                ListIterator<String> classNamesIter = classNames.listIterator();
-
-                while ( classNamesIter.hasNext())
-                {
-                    String className = classNamesIter.next();
-                    for ( String exclude : excludes )
-                    {
-                        if(SelectorUtils.match(exclude, className)) {
-                          classNamesIter.remove();
-                          break;
-                        }
-                    }
+    /**
+     * @return the value of the priority annotation of the implementation, <code>null</code> if it has none
+     */
+    private Integer getPriority(String implementation, List<AnnotationInfo> annotations) {
+        for (AnnotationInfo annotation : annotations) {
+            List<String> value = annotation.get("value");
+            if (Arrays.asList(PRIORITY_ANNOTATIONS).contains(annotation.getType()) && value.size() == 1) {
+                try {
+                    return Integer.valueOf(value.get(0));
+                } catch (NumberFormatException e) {
+                    getLog().warn("Ignoring the priority " + value.get(0) + " of " + implementation);
                 }
             }
         }
-        return serviceImplementations;
+        return null;
     }
 
     /**
-     * Walks the classFolder and finds all classes
-     *
-     * @param classFolder the folder to scan for .class files
-     * @return the list of available class names
+     * @return the interfaces of the implementation that extend the service
      */
-    List<String> listCompiledClasses(final File classFolder) {
-        List<String> classNames = new ArrayList<String>();
-        if (!classFolder.exists()) {
-            getLog().info("Class folder does not exist; skipping scan");
-            return classNames;
+    private static List<String> getServiceInterfaces(ClassHierarchy hierarchy, String implementation, String serviceName)
+            throws IOException {
+        List<String> interfaces = new ArrayList<String>();
+        ClassInfo info = hierarchy.find(implementation);
+        if (info == null) {
+            return interfaces;
         }
-        final String extension = ".class";
-        final DirectoryScanner directoryScanner = new DirectoryScanner();
-        directoryScanner.setBasedir(classFolder);
-        directoryScanner.setIncludes(new String[] { "**" + File.separator + "*" + extension });
-        directoryScanner.setExcludes(new String[] { "**" + File.separator + "module-info.class" });
-        directoryScanner.scan();
-        String[] files = directoryScanner.getIncludedFiles();
-
-        String className;
-        for (String file : files) {
-            className = file.substring(0, file.length() - extension.length()).replace(File.separator, ".");
-            classNames.add(className);
+        for (String supertype : hierarchy.getSupertypes(info)) {
+            ClassInfo supertypeInfo = supertype.equals(serviceName) ? null : hierarchy.find(supertype);
+            if (supertypeInfo != null && supertypeInfo.isInterface()
+                    && hierarchy.getSupertypes(supertypeInfo).contains(serviceName)) {
+                interfaces.add(supertype);
+            }
         }
-
-        return classNames;
+        Collections.sort(interfaces);
+        return interfaces;
     }
 
     /**
-     * Walks the classFolder and finds all .class files
+     * Leaves out the providers without a public no-argument constructor, the registry class and the
+     * native-image metadata create the providers through it. Providers with only a provider() method
+     * are left to the provides directives of the module.
      *
-     * @param classFolder
-     * @return the list of available class names
+     * @return the providers per service that have a public no-argument constructor
      */
-    private List<String> listCompiledClassesRegex(File classFolder) {
-        List<String> classNames = new ArrayList<String>();
-
-        Stack<File> todo = new Stack<File>();
-        todo.push(classFolder);
-        String classFolderPath = classFolder.getAbsolutePath();
-        getLog().info("ClassFolderPath=" + classFolderPath);
-
-        Pattern pat = Pattern.compile(classFolderPath + File.separator + "(.*).class");
-        File workDir;
-        String name;
-        while (!todo.isEmpty()) {
-            workDir = todo.pop();
-            for (File file : workDir.listFiles()) {
-                if (file.isDirectory()) {
-                    todo.push(file);
-                } else {
-                    if (file.getName().endsWith(".class")) {
-                        name = file.getAbsolutePath();
-                        name = pat.matcher(name).group(1);
-                        name = name.replace(File.separator, ".");
-                        getLog().debug("Found class: " + name);
-                        classNames.add(name);
-                    }
+    private Map<String, List<String>> constructibleProviders(Map<String, List<String>> services, ClassHierarchy hierarchy)
+            throws MojoExecutionException {
+        Map<String, List<String>> constructible = new TreeMap<String, List<String>>();
+        Set<String> reported = new HashSet<String>();
+        for (Entry<String, List<String>> service : services.entrySet()) {
+            List<String> implementations = new ArrayList<String>();
+            for (String implementation : service.getValue()) {
+                ClassInfo info;
+                try {
+                    info = hierarchy.find(implementation);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Could not read class: " + implementation, e);
+                }
+                if (info == null || info.hasPublicNoArgConstructor()) {
+                    implementations.add(implementation);
+                } else if (reported.add(implementation)) {
+                    getLog().warn("Leaving " + implementation + " out of the registry class and native-image metadata,"
+                            + " it has no public no-argument constructor");
                 }
             }
+            constructible.put(service.getKey(), implementations);
+        }
+        return constructible;
+    }
 
+    /**
+     * Generates the registry class in the class folder, see {@link RegistryClassWriter}
+     *
+     * @return the class file
+     */
+    private File writeRegistryClass(Map<String, List<String>> services) throws MojoExecutionException {
+        File classFile = new File(getClassFolder(), registryClass.replace('.', File.separatorChar) + ".class");
+        getLog().info("Generating registry class " + registryClass);
+        try {
+            writeGeneratedFile(classFile, RegistryClassWriter.generate(registryClass, services));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error creating registry class " + classFile, e);
         }
-        return classNames;
+        return classFile;
     }
 
     /**
-     * Generates a URL[] with the project class path (can be used by a
-     * URLClassLoader)
+     * Writes the native-image metadata when enabled, see {@link NativeImageMetadata}
      *
-     * @return the array of classpath URL's
-     * @throws MojoExecutionException
+     * @return the files written
      */
-    private URL[] generateClassPathUrls() throws MojoExecutionException {
-        List<URL> urls = new ArrayList<URL>();
-        URL url;
+    private List<File> writeNativeImageMetadata(Map<String, List<String>> services) throws MojoExecutionException {
+        List<File> files = getNativeImageFiles();
+        if (files.isEmpty()) {
+            return files;
+        }
+        getLog().info("Generating native-image metadata in " + nativeImageDirectory);
         try {
-            for (Object element : getCompileClasspath()) {
-                String path = (String) element;
-                if (path.endsWith(".jar")) {
-                    url = new URL("jar:" + new File(path).toURI().toString() + "!/");
-                } else {
-                    url = new File(path).toURI().toURL();
+            writeGeneratedFile(files.get(0), NativeImageMetadata.reflectConfig(services));
+            writeGeneratedFile(files.get(1), NativeImageMetadata.resourceConfig(getServicesResourcePath(), services.keySet()));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error creating native-image metadata in " + nativeImageDirectory, e);
+        }
+        return files;
+    }
+
+    /**
+     * @return the reflect-config.json and resource-config.json files, none when disabled
+     */
+    private List<File> getNativeImageFiles() {
+        if (!nativeImage || nativeImageDirectory == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(new File(nativeImageDirectory, NativeImageMetadata.REFLECT_CONFIG),
+                new File(nativeImageDirectory, NativeImageMetadata.RESOURCE_CONFIG));
+    }
+
+    /**
+     * @return the resource path of the service files in the class folder
+     */
+    private String getServicesResourcePath() {
+        File classFolder = getClassFolder().getAbsoluteFile();
+        File outputDirectory = getOutputDirectory().getAbsoluteFile();
+        if (!outputDirectory.toPath().startsWith(classFolder.toPath())) {
+            getLog().warn("Service files are not generated in " + classFolder + ", assuming META-INF/services");
+            return "META-INF/services";
+        }
+        return classFolder.toPath().relativize(outputDirectory.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Verifies or updates the provides directives of the module descriptor, see moduleInfo
+     */
+    private void processModuleDescriptor(Map<String, List<String>> services) throws MojoExecutionException {
+        if (moduleInfo == null || MODULE_INFO_IGNORE.equals(moduleInfo)) {
+            return;
+        }
+        boolean update = MODULE_INFO_UPDATE.equals(moduleInfo);
+        if (!update && !MODULE_INFO_VERIFY.equals(moduleInfo)) {
+            throw new MojoExecutionException("Unknown moduleInfo " + moduleInfo + ", use " + MODULE_INFO_IGNORE + ", "
+                    + MODULE_INFO_VERIFY + " or " + MODULE_INFO_UPDATE);
+        }
+        File descriptor = new File(getClassFolder(), MODULE_DESCRIPTOR);
+        if (!descriptor.isFile()) {
+            getLog().debug("No " + descriptor + "; nothing to " + moduleInfo);
+            return;
+        }
+        // a module can only provide its own classes, not those of scanned dependencies
+        Map<String, Set<String>> provided = new TreeMap<String, Set<String>>();
+        for (Entry<String, List<String>> service : services.entrySet()) {
+            Set<String> implementations = new LinkedHashSet<String>();
+            for (String implementation : service.getValue()) {
+                if (new File(getClassFolder(), implementation.replace('.', File.separatorChar) + ".class").isFile()) {
+                    implementations.add(implementation);
+                }
+            }
+            provided.put(service.getKey(), implementations);
+        }
+        try {
+            byte[] content = Files.readAllBytes(descriptor.toPath());
+            if (update) {
+                getLog().info("Updating the provides directives of " + descriptor);
+                writeGeneratedFile(descriptor, ModuleInfoRewriter.withProvides(content, provided));
+                return;
+            }
+            Map<String, List<String>> declared = ModuleInfoRewriter.readProvides(content);
+            StringBuilder problems = new StringBuilder();
+            for (Entry<String, Set<String>> service : provided.entrySet()) {
+                List<String> declaredImplementations = declared.get(service.getKey());
+                Set<String> actual = declaredImplementations == null
+                        ? Collections.<String>emptySet() : new TreeSet<String>(declaredImplementations);
+                if (!actual.equals(new TreeSet<String>(service.getValue()))) {
+                    problems.append("\n  ").append(service.getKey()).append(": found ").append(new TreeSet<String>(service.getValue()))
+                            .append(", declared ").append(actual);
+                }
+            }
+            if (problems.length() != 0) {
+                throw new MojoExecutionException("The provides directives of " + descriptor
+                        + " do not match the implementations:" + problems);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not read " + descriptor, e);
+        }
+    }
+
+    /**
+     * Writes a generated file other than a service file, unless it already has this content
+     */
+    private void writeGeneratedFile(File file, byte[] content) throws IOException {
+        FlightRecorder.Span span = FlightRecorder.fileWrite(file, content.length);
+        try {
+            if (ServiceFileWriter.write(file, content)) {
+                buildContext.refresh(file);
+                report.fileWritten();
+            } else {
+                report.fileUnchanged();
+                getLog().debug("File " + file + " is unchanged");
+            }
+        } finally {
+            span.finish();
+        }
+    }
+
+    /**
+     * Deletes the service files and registry class the previous execution generated that were not
+     * generated again
+     */
+    private void removeStaleServiceFiles(Set<File> serviceFiles) {
+        if (workDirectory == null) {
+            return;
+        }
+        File listFile = new File(workDirectory, "service-files.lst");
+        try {
+            for (File previous : ServiceFileWriter.readFileList(listFile)) {
+                if (!serviceFiles.contains(previous) && previous.isFile()) {
+                    getLog().info("Removing stale generated file " + previous);
+                    if (previous.delete()) {
+                        buildContext.refresh(previous);
+                        report.fileRemoved();
+                    } else {
+                        getLog().warn("Could not delete " + previous);
+                    }
+                }
+            }
+            ServiceFileWriter.writeFileList(listFile, serviceFiles);
+        } catch (IOException e) {
+            getLog().warn("Could not update the list of generated service files " + listFile, e);
+        }
+    }
+
+    /**
+     * Loads all interfaces using the provided ClassLoader
+     *
+     * @param loader the classloader
+     * @return thi List of Interface classes
+     * @throws MojoExecutionException
+     *             is the interfaces are not interfaces or can not be found on
+     *             the classpath
+     */
+    private List<Class<?>> loadServiceClasses(ClassLoader loader)
+            throws MojoExecutionException {
+        List<Class<?>> serviceClasses = new ArrayList<Class<?>>();
+        List<String> serviceClassNames = new ArrayList<String>();
+        boolean wildcards = false;
+        for (String serviceClassName : getServices()) {
+            if (WildcardServices.isWildcard(serviceClassName)) {
+                wildcards = true;
+            } else {
+                serviceClassNames.add(serviceClassName);
+            }
+        }
+        if (wildcards) {
+            ClassHierarchy hierarchy = createHierarchy(null);
+            try {
+                for (String serviceName : resolveWildcardServices(hierarchy)) {
+                    if (!serviceClassNames.contains(serviceName)) {
+                        serviceClassNames.add(serviceName);
+                    }
                 }
-                urls.add(url);
+            } finally {
+                close(hierarchy);
             }
+        }
+        for (String serviceClassName : serviceClassNames) {
+            try {
+                Class<?> serviceClass = loader.loadClass(serviceClassName);
+                serviceClasses.add(serviceClass);
+            } catch (ClassNotFoundException ex) {
+                if (failOnMissingServiceClass) {
+                    throw new MojoExecutionException("Could not load class: " + serviceClassName, ex);
+                } else {
+                    getLog().info("Skipping missing service class: " + serviceClassName);
+                }
+            }
+        }
+        return serviceClasses;
+    }
+
+    /**
+     * Finds all implementations of interfaces in a folder
+     *
+     * @param loader
+     * @param interfaceClasses
+     * @return
+     * @throws MojoExecutionException
+     */
+    private Map<String, List<String>> findImplementations(final ClassLoader loader,
+                                                          final List<Class<?>> interfaceClasses) throws MojoExecutionException {
+        final Map<String, List<String>> serviceImplementations = new HashMap<String, List<String>>();
+        for (Class<?> interfaceClass: interfaceClasses) {
+            serviceImplementations.put(interfaceClass.getName(), new ArrayList<String>());
+        }
+        getLog().info("Scanning generated classes for implementations...");
+        final ClassNameFilter filter = ClassNameFilter.compile(includes, excludes);
+        final ServiceIndex<Class<?>> serviceIndex = new ServiceIndex<Class<?>>(interfaceClasses);
+        walkClasses(getClassFolder(), new ClassFolderWalker.Visitor() {
+            public void visitClass(String className, long lastModified, long length) {
+                report.classesDiscovered(1);
+                if (filter.accepts(className)) {
+                    checkClass(loader, serviceIndex, className, serviceImplementations);
+                }
+            }
+        });
+        if (validation.isIgnored()) {
+            return serviceImplementations;
+        }
+        Map<String, Boolean> accepted = new HashMap<String, Boolean>();
+        for (List<String> implementations : serviceImplementations.values()) {
+            for (Iterator<String> it = implementations.iterator(); it.hasNext(); ) {
+                String className = it.next();
+                Boolean accept = accepted.get(className);
+                if (accept == null) {
+                    accept = validation.accept(loader, className);
+                    accepted.put(className, accept);
+                }
+                if (!accept) {
+                    it.remove();
+                }
+            }
+        }
+        return serviceImplementations;
+    }
+
+    /**
+     * @return true if the moduleInfo setting keeps the provides directives of a module descriptor in
+     *         line with the service files
+     */
+    private boolean usesModuleProvides() {
+        return (MODULE_INFO_UPDATE.equals(moduleInfo) || MODULE_INFO_VERIFY.equals(moduleInfo))
+                && new File(getClassFolder(), MODULE_DESCRIPTOR).isFile();
+    }
+
+    private void checkClass(ClassLoader loader, ServiceIndex<Class<?>> serviceIndex, String className,
+                            Map<String, List<String>> serviceImplementations) {
+        FlightRecorder.Span span = FlightRecorder.classCheck(className);
+        try {
+            if(getLog().isDebugEnabled()){
+                getLog().debug("checking class: " + className);
+            }
+            report.classChecked();
+            Class<?> cls = loader.loadClass(className);
+            report.classLoaded();
+            int mods = cls.getModifiers();
+            if (!cls.isAnonymousClass() && !cls.isInterface()
+                    && !cls.isEnum() && !Modifier.isAbstract(mods)
+                    && Modifier.isPublic(mods)) {
+                for (Class<?> interfaceCls : serviceIndex.match(getSupertypes(cls))) {
+                    serviceImplementations.get(interfaceCls.getName()).add(className);
+                }
+            }
+        } catch (ClassNotFoundException e1) {
+            report.failure();
+            getLog().warn(e1);
+        } catch (NoClassDefFoundError e2) {
+            report.failure();
+            getLog().warn(e2);
+        } finally {
+            span.finish();
+        }
+    }
+
+    /**
+     * @return all super classes and interfaces of a class, transitively
+     */
+    private static Set<Class<?>> getSupertypes(Class<?> cls) {
+        Set<Class<?>> supertypes = new HashSet<Class<?>>();
+        Stack<Class<?>> todo = new Stack<Class<?>>();
+        todo.push(cls);
+        while (!todo.isEmpty()) {
+            Class<?> type = todo.pop();
+            Class<?> superclass = type.getSuperclass();
+            if (superclass != null && supertypes.add(superclass)) {
+                todo.push(superclass);
+            }
+            for (Class<?> interfaceType : type.getInterfaces()) {
+                if (supertypes.add(interfaceType)) {
+                    todo.push(interfaceType);
+                }
+            }
+        }
+        return supertypes;
+    }
+
+    /**
+     * Resolves the service types from bytecode, the counterpart of {@link #loadServiceClasses(ClassLoader)}
+     *
+     * @param hierarchy the class hierarchy
+     * @return the names of the service types that could be found
+     * @throws MojoExecutionException if a service type can not be found and failOnMissingServiceClass is set
+     */
+    private List<String> resolveServiceTypes(ClassHierarchy hierarchy) throws MojoExecutionException {
+        List<String> serviceNames = new ArrayList<String>();
+        if (getServices() == null) {
+            return serviceNames;
+        }
+        for (String serviceClassName : getServices()) {
+            if (WildcardServices.isWildcard(serviceClassName)) {
+                continue;
+            }
+            ClassInfo info;
+            try {
+                info = hierarchy.find(serviceClassName);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Could not read class: " + serviceClassName, e);
+            }
+            if (info != null) {
+                serviceNames.add(serviceClassName);
+            } else if (failOnMissingServiceClass) {
+                throw new MojoExecutionException("Could not load class: " + serviceClassName);
+            } else {
+                getLog().info("Skipping missing service class: " + serviceClassName);
+            }
+        }
+        for (String serviceName : resolveWildcardServices(hierarchy)) {
+            if (!serviceNames.contains(serviceName)) {
+                serviceNames.add(serviceName);
+            }
+        }
+        return serviceNames;
+    }
+
+    /**
+     * Resolves the services entries with a wildcard or an annotation, see {@link WildcardServices}
+     *
+     * @param hierarchy the class hierarchy
+     * @return the names of the matching interfaces
+     * @throws MojoExecutionException if the classpath can not be listed
+     */
+    private Set<String> resolveWildcardServices(ClassHierarchy hierarchy) throws MojoExecutionException {
+        WildcardServices wildcards = new WildcardServices(getServices());
+        if (wildcards.isEmpty()) {
+            return new TreeSet<String>();
+        }
+        Set<String> serviceNames;
+        try {
+            serviceNames = wildcards.resolve(hierarchy);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not list the service types", e);
+        }
+        getLog().info("Resolved " + serviceNames.size() + " services from " + wildcards.getPatternCount()
+                + " patterns and " + wildcards.getAnnotationCount() + " annotations");
+        return serviceNames;
+    }
+
+    /**
+     * Finds all implementations of the services in the class folder by reading the class files.
+     * Classes with a supertype that can not be resolved from bytecode are checked reflectively.
+     * The classes are checked while the class folder is walked. When incremental scanning is
+     * enabled only classes that changed since the previous build, or that have a supertype that
+     * changed, are checked again. The classes marked with one of the providerAnnotations are added
+     * to the services they declare in the same pass, see {@link AnnotatedProviders}.
+     *
+     * @param hierarchy the class hierarchy
+     * @param serviceNames the service types
+     * @return the implementations per service
+     * @throws MojoExecutionException
+     */
+    Map<String, List<String>> findImplementations(ClassHierarchy hierarchy,
+                                                  List<String> serviceNames) throws MojoExecutionException {
+        Map<String, List<String>> serviceImplementations = new HashMap<String, List<String>>();
+        for (String serviceName : serviceNames) {
+            serviceImplementations.put(serviceName, new ArrayList<String>());
+        }
+        ServiceIndex<String> serviceIndex = new ServiceIndex<String>(serviceNames);
+        annotatedProviders = null;
+        if (hasProviderAnnotations()) {
+            annotatedProviders = new AnnotatedProviders(providerAnnotations, validation, new AnnotatedProviders.Fallback() {
+                public boolean isAssignable(String serviceName, String className) throws MojoExecutionException {
+                    return ServiceloaderMojo.this.isAssignable(getFallbackLoader(), serviceName, className);
+                }
+            });
+        }
+        getLog().info("Scanning generated classes for implementations...");
+        File stateFile = getIncrementalStateFile();
+        IncrementalState state = null;
+        IncrementalState previous = null;
+        if (stateFile != null) {
+            state = new IncrementalState(incrementalFingerprint(serviceNames));
+            previous = IncrementalState.read(stateFile);
+            if (previous != null && (!state.getFingerprint().equals(previous.getFingerprint()) || !previous.externalFilesUpToDate())) {
+                getLog().info("Services or classpath changed; checking all classes");
+                previous = null;
+            }
+            if (previous != null) {
+                state.addExternalFiles(previous);
+            }
+        }
+
+        StreamingScan scan = new StreamingScan(hierarchy, serviceIndex, serviceImplementations, state, previous);
+        try {
+            walkClasses(getClassFolder(), scan);
+            walkDependencies(hierarchy, scan);
+            scan.finish();
+        } finally {
+            scan.close();
+        }
+        if (state == null) {
+            return serviceImplementations;
+        }
+        report.classesReused(scan.reused);
+        if (previous != null) {
+            getLog().info("Reused the result of " + scan.reused + " unchanged classes, checked " + (scan.walked.size() - scan.reused));
+        }
+        try {
+            state.write(stateFile);
+        } catch (IOException e) {
+            getLog().warn("Could not store incremental state " + stateFile, e);
+        }
+        return serviceImplementations;
+    }
+
+    /**
+     * Adds a class to the services it implements
+     *
+     * @return false if the class could not be checked
+     * @throws MojoExecutionException if checking the class failed in a way that should stop the build
+     */
+    private boolean mergeResult(String className, ClassResult result, Map<String, List<String>> serviceImplementations)
+            throws MojoExecutionException {
+        if (result.error != null) {
+            report.failure();
+        }
+        if (result.error instanceof MojoExecutionException) {
+            throw (MojoExecutionException) result.error;
+        }
+        if (result.error != null) {
+            getLog().warn("Could not read class " + className, result.error);
+            return false;
+        }
+        for (String serviceName : result.services) {
+            serviceImplementations.get(serviceName).add(className);
+        }
+        for (String serviceName : result.annotatedServices) {
+            List<String> implementations = serviceImplementations.get(serviceName);
+            if (implementations == null) {
+                implementations = new ArrayList<String>();
+                serviceImplementations.put(serviceName, implementations);
+            }
+            if (!implementations.contains(className)) {
+                implementations.add(className);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the classes while the class folder is walked. The classes are grouped in batches that
+     * are checked on the fork/join pool when there is more than one scan thread. Finished batches
+     * are merged in the order the classes were found, after which only the implementations are
+     * kept, so memory does not grow with the size of the class folder.
+     * With an incremental state the added and changed classes are checked during the walk as well.
+     * Whether an unchanged class depends on a supertype that changed or was deleted is only known
+     * once the walk is over, so those classes are set aside and reused or checked at the end.
+     */
+    private final class StreamingScan implements ClassFolderWalker.Visitor {
+        private final ClassHierarchy hierarchy;
+        private final ServiceIndex<String> serviceIndex;
+        private final Map<String, List<String>> serviceImplementations;
+        private final ClassNameFilter filter = ClassNameFilter.compile(includes, excludes);
+        private final ForkJoinPool pool;
+        private final int maxPending;
+        private final LinkedList<CheckTask> pending = new LinkedList<CheckTask>();
+        private List<String> batch = new ArrayList<String>(CHECK_BATCH_SIZE);
+        private MojoExecutionException failure;
+        /** receives the results, <code>null</code> when the scan is not incremental */
+        private final IncrementalState state;
+        /** the results to reuse, <code>null</code> when every class is checked */
+        private final IncrementalState previous;
+        private final Set<String> walked = new HashSet<String>();
+        private final Set<String> changed = new HashSet<String>();
+        private final Map<String, IncrementalState.Entry> unchanged = new LinkedHashMap<String, IncrementalState.Entry>();
+        /** the file stamps of the classes being checked */
+        private final Map<String, long[]> stamps = new HashMap<String, long[]>();
+        /** the class files outside the class folder the results depend on, per supertype */
+        private final Map<String, File> supertypeFiles = new HashMap<String, File>();
+        private int reused;
+
+        /**
+         * @param state receives the results, <code>null</code> when the scan is not incremental
+         * @param previous the results to reuse, <code>null</code> to check every class
+         */
+        StreamingScan(ClassHierarchy hierarchy, ServiceIndex<String> serviceIndex, Map<String, List<String>> serviceImplementations,
+                      IncrementalState state, IncrementalState previous) {
+            this.hierarchy = hierarchy;
+            this.serviceIndex = serviceIndex;
+            this.serviceImplementations = serviceImplementations;
+            this.state = state;
+            this.previous = previous;
+            int threads = getScanThreads();
+            this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            this.maxPending = 4 * threads;
+        }
+
+        public void visitClass(String className, long lastModified, long length) {
+            report.classesDiscovered(1);
+            if (state == null) {
+                if (filter.accepts(className)) {
+                    check(className);
+                }
+                return;
+            }
+            walked.add(className);
+            IncrementalState.Entry entry = previous == null ? null : previous.get(className);
+            boolean upToDate = entry != null && entry.isUpToDate(lastModified, length);
+            if (previous != null && !upToDate) {
+                changed.add(className);
+            }
+            if (!filter.accepts(className)) {
+                state.put(className, lastModified, length);
+            } else if (upToDate) {
+                unchanged.put(className, entry);
+            } else {
+                stamps.put(className, new long[]{lastModified, length});
+                check(className);
+            }
+        }
+
+        private void check(String className) {
+            batch.add(className);
+            if (batch.size() == CHECK_BATCH_SIZE) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            CheckTask task = new CheckTask(hierarchy, serviceIndex, batch, new ClassResult[batch.size()], 0, batch.size());
+            batch = new ArrayList<String>(CHECK_BATCH_SIZE);
+            if (pool == null) {
+                task.invoke();
+            } else {
+                pool.execute(task);
+            }
+            pending.add(task);
+            // the walk waits for the checks when it gets too far ahead
+            while (!pending.isEmpty() && (pending.getFirst().isDone() || pending.size() > maxPending)) {
+                merge(pending.removeFirst());
+            }
+        }
+
+        private void merge(CheckTask task) {
+            task.join();
+            for (int i = 0; i < task.classNames.size(); i++) {
+                String className = task.classNames.get(i);
+                long[] stamp = state == null ? null : stamps.remove(className);
+                try {
+                    if (mergeResult(className, task.results[i], serviceImplementations) && stamp != null) {
+                        record(className, task.results[i], stamp);
+                    }
+                } catch (MojoExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Remembers the result for a class together with the supertypes it was derived from. Classes
+         * with a supertype that could not be resolved are not recorded so they are always checked.
+         */
+        private void record(String className, ClassResult result, long[] stamp) {
+            if (!result.complete) {
+                return;
+            }
+            if (result.supertypes == null) {
+                state.put(className, stamp[0], stamp[1]);
+                return;
+            }
+            for (String supertype : result.supertypes) {
+                File sourceFile = hierarchy.getSourceFile(supertype);
+                if (sourceFile != null) {
+                    supertypeFiles.put(supertype, sourceFile);
+                }
+            }
+            state.put(className, stamp[0], stamp[1], result.services, result.annotatedServices, result.supertypes);
+        }
+
+        /**
+         * Reuses the unchanged classes that do not depend on a changed or deleted class, checks the
+         * others and waits for all checks
+         */
+        void finish() throws MojoExecutionException {
+            if (previous != null) {
+                for (String className : previous.getEntries().keySet()) {
+                    if (!walked.contains(className)) {
+                        changed.add(className);
+                    }
+                }
+                for (Map.Entry<String, IncrementalState.Entry> unchangedClass : unchanged.entrySet()) {
+                    String className = unchangedClass.getKey();
+                    IncrementalState.Entry entry = unchangedClass.getValue();
+                    if (dependsOn(entry, changed)) {
+                        stamps.put(className, new long[]{entry.getLastModified(), entry.getLength()});
+                        check(className);
+                    } else {
+                        mergeResult(className, new ClassResult(entry.getServices(), entry.getAnnotatedServices(),
+                                entry.getSupertypes()), serviceImplementations);
+                        state.put(className, entry);
+                        reused++;
+                    }
+                }
+            }
+            submit();
+            while (!pending.isEmpty()) {
+                merge(pending.removeFirst());
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            for (Map.Entry<String, File> supertypeFile : supertypeFiles.entrySet()) {
+                if (!walked.contains(supertypeFile.getKey())) {
+                    state.addExternalFile(supertypeFile.getValue());
+                }
+            }
+        }
+
+        void close() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The outcome of checking a single class
+     */
+    private static final class ClassResult {
+        /** the implemented services, before includes and excludes are applied */
+        private final String[] services;
+        /** the services the provider annotations register the class for */
+        private final String[] annotatedServices;
+        /** all supertypes, <code>null</code> when the class can not be a service implementation */
+        private final String[] supertypes;
+        private final boolean complete;
+        private final Exception error;
+
+        ClassResult(String[] services, String[] annotatedServices, String[] supertypes) {
+            this(services, annotatedServices, supertypes, true, null);
+        }
+
+        ClassResult(String[] services, String[] annotatedServices, String[] supertypes, boolean complete, Exception error) {
+            this.services = services;
+            this.annotatedServices = annotatedServices;
+            this.supertypes = supertypes;
+            this.complete = complete;
+            this.error = error;
+        }
+    }
+
+    private void checkClasses(ClassHierarchy hierarchy, ServiceIndex<String> serviceIndex, List<String> classNames,
+                              ClassResult[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (results[i] == null) {
+                results[i] = checkClass(hierarchy, serviceIndex, classNames.get(i));
+            }
+        }
+    }
+
+    private final class CheckTask extends RecursiveAction {
+        private final ClassHierarchy hierarchy;
+        private final ServiceIndex<String> serviceIndex;
+        private final List<String> classNames;
+        private final ClassResult[] results;
+        private final int from;
+        private final int to;
+
+        CheckTask(ClassHierarchy hierarchy, ServiceIndex<String> serviceIndex, List<String> classNames,
+                  ClassResult[] results, int from, int to) {
+            this.hierarchy = hierarchy;
+            this.serviceIndex = serviceIndex;
+            this.classNames = classNames;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHECK_BATCH_SIZE) {
+                checkClasses(hierarchy, serviceIndex, classNames, results, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckTask(hierarchy, serviceIndex, classNames, results, from, middle),
+                        new CheckTask(hierarchy, serviceIndex, classNames, results, middle, to));
+            }
+        }
+    }
+
+    private int getScanThreads() {
+        return scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Checks a single class against all services, the supertypes are collected once and looked up
+     * in the service index
+     */
+    private ClassResult checkClass(ClassHierarchy hierarchy, ServiceIndex<String> serviceIndex, String className) {
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("checking class: " + className);
+        }
+        report.classChecked();
+        FlightRecorder.Span span = FlightRecorder.classCheck(className);
+        try {
+            ClassInfo info = hierarchy.find(className);
+            String[] annotated = info == null || annotatedProviders == null
+                    ? NO_SERVICES : annotatedProviders.find(hierarchy, info);
+            if (info == null || !info.isConcretePublicClass()
+                    || (serviceIndex.getServices().isEmpty() && annotated.length == 0)) {
+                return new ClassResult(NO_SERVICES, NO_SERVICES, null);
+            }
+            Set<String> supertypes = hierarchy.getSupertypes(info);
+            boolean complete = hierarchy.isComplete(supertypes);
+            List<String> implemented;
+            if (complete) {
+                implemented = serviceIndex.match(supertypes);
+            } else {
+                // ask a class loader about the services that might hide behind an unresolved supertype
+                implemented = new ArrayList<String>();
+                for (String serviceName : serviceIndex.getServices()) {
+                    if (supertypes.contains(serviceName)
+                            || (!serviceName.equals(className) && isAssignable(getFallbackLoader(), serviceName, className))) {
+                        implemented.add(serviceName);
+                    }
+                }
+            }
+            if (!implemented.isEmpty() && !validation.accept(info)) {
+                implemented = Collections.emptyList();
+            }
+            return new ClassResult(implemented.toArray(new String[implemented.size()]), annotated,
+                    supertypes.toArray(new String[supertypes.size()]), complete, null);
+        } catch (IOException e) {
+            return new ClassResult(NO_SERVICES, NO_SERVICES, null, false, e);
+        } catch (MojoExecutionException e) {
+            return new ClassResult(NO_SERVICES, NO_SERVICES, null, false, e);
+        } finally {
+            span.finish();
+        }
+    }
+
+    private boolean hasProviderAnnotations() {
+        return providerAnnotations != null && providerAnnotations.length != 0;
+    }
+
+    private synchronized ClassLoader getFallbackLoader() throws MojoExecutionException {
+        if (fallbackLoader == null) {
+            fallbackLoader = createClassLoader();
+        }
+        return fallbackLoader.getLoader();
+    }
+
+    private static boolean dependsOn(IncrementalState.Entry entry, Set<String> changed) {
+        for (String supertype : entry.getSupertypes()) {
+            if (changed.contains(supertype)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The incremental state is only valid for the same services, includes, excludes and dependency jars
+     */
+    private Fingerprint incrementalFingerprint(List<String> serviceNames) {
+        Fingerprint fingerprint = new Fingerprint()
+                .add(serviceNames.toArray(new String[serviceNames.size()]))
+                .add(includes)
+                .add(excludes)
+                .add(scanDependencies)
+                .add(providerValidation)
+                .add(providerAnnotations)
+                .add(String.valueOf(usesModuleProvides()));
+        addClasspath(fingerprint);
+        return fingerprint;
+    }
+
+    private File getIncrementalStateFile() {
+        if (!incremental || workDirectory == null) {
+            return null;
+        }
+        return new File(workDirectory, "incremental.state");
+    }
+
+    /**
+     * The reflective fallback for classes whose hierarchy is not fully available as bytecode
+     */
+    private boolean isAssignable(ClassLoader loader, String serviceName, String className) {
+        try {
+            report.classLoaded();
+            return loader.loadClass(serviceName).isAssignableFrom(loader.loadClass(className));
+        } catch (ClassNotFoundException e1) {
+            report.failure();
+            getLog().warn(e1);
+        } catch (NoClassDefFoundError e2) {
+            report.failure();
+            getLog().warn(e2);
+        }
+        return false;
+    }
+
+    /**
+     * Walks the classFolder and finds all classes. Only the packages in scanPackages are walked
+     * and, when every include starts with a literal package name, only those packages.
+     *
+     * @param classFolder the folder to scan for .class files
+     * @return the list of available class names
+     * @throws MojoExecutionException if the folder can not be read
+     */
+    List<String> listCompiledClasses(final File classFolder) throws MojoExecutionException {
+        final List<String> classNames = new ArrayList<String>();
+        walkClasses(classFolder, new ClassFolderWalker.Visitor() {
+            public void visitClass(String className, long lastModified, long length) {
+                classNames.add(className);
+            }
+        });
+        return classNames;
+    }
+
+    /**
+     * Streams the classes of the scanned packages of the classFolder to a visitor
+     *
+     * @param classFolder the folder to scan for .class files
+     * @param visitor receives the classes as they are found
+     * @throws MojoExecutionException if the folder can not be read
+     */
+    private void walkClasses(File classFolder, ClassFolderWalker.Visitor visitor) throws MojoExecutionException {
+        if (!classFolder.exists()) {
+            getLog().info("Class folder does not exist; skipping scan");
+            return;
+        }
+        List<String> scanRoots = getScanRoots();
+        if (scanRoots != null && scanRoots.isEmpty()) {
+            getLog().info("scanPackages and includes have no package in common; skipping scan");
+            return;
+        }
+        FlightRecorder.Span span = FlightRecorder.directoryWalk(classFolder);
+        try {
+            ClassFolderWalker.walk(classFolder, scanRoots, visitor);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not scan " + classFolder, e);
+        } finally {
+            span.finish();
+        }
+    }
+
+    /**
+     * Streams the classes of the dependency jars selected by scanDependencies to a visitor, they
+     * carry the modification time and size of their jar
+     *
+     * @param hierarchy told which jars are scanned
+     * @param visitor receives the classes as they are found
+     * @throws MojoExecutionException if a jar can not be read
+     */
+    private void walkDependencies(ClassHierarchy hierarchy, ClassFolderWalker.Visitor visitor)
+            throws MojoExecutionException {
+        List<File> jars = getDependencyJars();
+        if (jars.isEmpty()) {
+            return;
+        }
+        hierarchy.addScannedJars(jars);
+        List<String> scanRoots = getScanRoots();
+        if (scanRoots != null && scanRoots.isEmpty()) {
+            return;
+        }
+        for (File jar : jars) {
+            getLog().info("Scanning dependency " + jar.getName() + " for implementations...");
+            FlightRecorder.Span span = FlightRecorder.directoryWalk(jar);
+            try {
+                JarWalker.walk(jar, scanRoots, visitor);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Could not scan " + jar, e);
+            } finally {
+                span.finish();
+            }
+        }
+    }
+
+    /**
+     * @return the jars of the dependencies that match scanDependencies
+     */
+    List<File> getDependencyJars() throws MojoExecutionException {
+        if (scanDependencies == null || scanDependencies.length == 0) {
+            return Collections.emptyList();
+        }
+        if (project == null) {
+            getLog().warn("Project not set; not scanning dependencies");
+            return Collections.emptyList();
+        }
+        return selectDependencyJars(project.getArtifacts(), scanDependencies);
+    }
+
+    /**
+     * @param artifacts the resolved artifacts
+     * @param patterns <code>groupId:artifactId</code> patterns
+     * @return the jars of the matching artifacts
+     */
+    static List<File> selectDependencyJars(Collection<?> artifacts, String[] patterns) {
+        List<File> jars = new ArrayList<File>();
+        ClassNameFilter filter = ClassNameFilter.compile(patterns, null);
+        for (Object element : artifacts) {
+            Artifact artifact = (Artifact) element;
+            File file = artifact.getFile();
+            if (file != null && file.isFile() && file.getName().endsWith(".jar")
+                    && filter.accepts(artifact.getGroupId() + ":" + artifact.getArtifactId())) {
+                jars.add(file);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * The packages that have to be walked: the scanPackages, narrowed down to the literal package
+     * prefixes of the includes when all includes have one.
+     *
+     * @return the packages to walk, <code>null</code> to walk the whole class folder
+     */
+    List<String> getScanRoots() {
+        List<String> includeRoots = null;
+        if (includes != null && includes.length != 0) {
+            includeRoots = new ArrayList<String>();
+            for (String include : includes) {
+                String packageName = ClassNameFilter.literalPackage(include);
+                if (packageName.length() == 0) {
+                    includeRoots = null;
+                    break;
+                }
+                includeRoots.add(packageName);
+            }
+        }
+        List<String> packageRoots = null;
+        if (scanPackages != null && scanPackages.length != 0) {
+            packageRoots = new ArrayList<String>();
+            for (String scanPackage : scanPackages) {
+                String packageName = scanPackage.trim();
+                if (packageName.length() == 0) {
+                    packageRoots = null;
+                    break;
+                }
+                packageRoots.add(packageName);
+            }
+        }
+        if (includeRoots == null) {
+            return packageRoots == null ? null : ClassNameFilter.outermostPackages(packageRoots);
+        }
+        if (packageRoots == null) {
+            return ClassNameFilter.outermostPackages(includeRoots);
+        }
+        List<String> roots = new ArrayList<String>();
+        for (String includeRoot : includeRoots) {
+            for (String packageRoot : packageRoots) {
+                if (ClassNameFilter.isWithin(includeRoot, packageRoot)) {
+                    roots.add(includeRoot);
+                } else if (ClassNameFilter.isWithin(packageRoot, includeRoot)) {
+                    roots.add(packageRoot);
+                }
+            }
+        }
+        return ClassNameFilter.outermostPackages(roots);
+    }
+
+    /**
+     * @param indexCache the jar index cache, <code>null</code> to read the jars directly
+     * @return a class hierarchy that only resolves the classpath when a class is not in the class folder
+     */
+    private ClassHierarchy createHierarchy(JarIndexCache indexCache) {
+        ClassHierarchy hierarchy = new ClassHierarchy(getClassFolder(), new ClassHierarchy.Classpath() {
+            public int size() throws IOException {
+                try {
+                    return getClasspathSize();
+                } catch (MojoExecutionException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+
+            public String get(int index) throws IOException {
+                try {
+                    return resolveClasspathElement(index);
+                } catch (MojoExecutionException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        }, indexCache);
+        if (hasProviderAnnotations()) {
+            hierarchy.setProviderAnnotations(Arrays.asList(providerAnnotations));
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Creates a class loader for the project class path
+     *
+     * @return the class loader, to be closed when done
+     * @throws MojoExecutionException
+     */
+    private ProjectClassLoader createClassLoader() throws MojoExecutionException {
+        List<String> classpath = resolveClasspath();
+        FlightRecorder.Span span = FlightRecorder.classLoaderCreation(classpath.size());
+        try {
+            return ProjectClassLoader.create(classpath, getClassFolder(), shareClassLoaders);
         } catch (MalformedURLException e) {
             throw new MojoExecutionException("Could not set up classpath", e);
+        } finally {
+            span.finish();
         }
-        return urls.toArray(new URL[urls.size()]);
     }
 
     private boolean skipProject() {
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * What the last successful execution saw: a fingerprint of its inputs, the class files it read
+ * from other classpath directories and the service files it wrote. When all of them are unchanged
+ * the execution can be skipped.
+ */
+final class UpToDateState {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final String fingerprint;
+    private final List<String> externalPaths = new ArrayList<String>();
+    private final List<long[]> externalStamps = new ArrayList<long[]>();
+    private final List<String> outputs = new ArrayList<String>();
+
+    UpToDateState(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    void addExternalFiles(Collection<File> files) {
+        for (File file : files) {
+            externalPaths.add(file.getAbsolutePath());
+            externalStamps.add(new long[]{file.lastModified(), file.length()});
+        }
+    }
+
+    void addOutputs(Collection<File> files) {
+        for (File file : files) {
+            outputs.add(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @param currentFingerprint the fingerprint of the current inputs
+     * @return true if nothing changed since this state was stored
+     */
+    boolean isUpToDate(String currentFingerprint) {
+        if (!fingerprint.equals(currentFingerprint)) {
+            return false;
+        }
+        for (int i = 0; i < externalPaths.size(); i++) {
+            File file = new File(externalPaths.get(i));
+            if (file.lastModified() != externalStamps.get(i)[0] || file.length() != externalStamps.get(i)[1]) {
+                return false;
+            }
+        }
+        for (String output : outputs) {
+            if (!new File(output).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param file the state file
+     * @return the stored state or <code>null</code> if there is no readable state
+     */
+    static UpToDateState read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                UpToDateState state = new UpToDateState(in.readUTF());
+                int externalCount = in.readInt();
+                for (int i = 0; i < externalCount; i++) {
+                    state.externalPaths.add(in.readUTF());
+                    state.externalStamps.add(new long[]{in.readLong(), in.readLong()});
+                }
+                int outputCount = in.readInt();
+                for (int i = 0; i < outputCount; i++) {
+                    state.outputs.add(in.readUTF());
+                }
+                return state;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void write(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(fingerprint);
+            out.writeInt(externalPaths.size());
+            for (int i = 0; i < externalPaths.size(); i++) {
+                out.writeUTF(externalPaths.get(i));
+                out.writeLong(externalStamps.get(i)[0]);
+                out.writeLong(externalStamps.get(i)[1]);
+            }
+            out.writeInt(outputs.size());
+            for (String output : outputs) {
+                out.writeUTF(output);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 Francis De Brabandere <info@somatik.eu>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.somatik.maven.serviceloader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The services entries that stand for any number of services: <code>com.foo.spi.*</code> matches
+ * the names of public interfaces and <code>@com.foo.Spi</code> the public interfaces annotated with
+ * <code>com.foo.Spi</code>. They are matched against the class headers, so jars are matched from
+ * their index.
+ */
+final class WildcardServices {
+
+    private final List<String> patterns = new ArrayList<String>();
+    private final List<String> annotationTypes = new ArrayList<String>();
+
+    /**
+     * @param services the configured services, the entries without a wildcard are left out
+     */
+    WildcardServices(String[] services) {
+        if (services == null) {
+            return;
+        }
+        for (String service : services) {
+            if (service.startsWith("@")) {
+                annotationTypes.add(service.substring(1));
+            } else if (isWildcard(service)) {
+                patterns.add(service);
+            }
+        }
+    }
+
+    /**
+     * @return true for a services entry that stands for any number of services
+     */
+    static boolean isWildcard(String service) {
+        return service.startsWith("@") || service.indexOf('*') >= 0 || service.indexOf('?') >= 0;
+    }
+
+    boolean isEmpty() {
+        return patterns.isEmpty() && annotationTypes.isEmpty();
+    }
+
+    /**
+     * @return the packages the entries can match in, <code>null</code> for all of them
+     */
+    List<String> getPackages() {
+        if (!annotationTypes.isEmpty()) {
+            return null;
+        }
+        List<String> packages = new ArrayList<String>();
+        for (String pattern : patterns) {
+            packages.add(ClassNameFilter.literalPackage(pattern));
+        }
+        return packages.contains("") ? null : ClassNameFilter.outermostPackages(packages);
+    }
+
+    /**
+     * Resolves the entries against the interfaces in the class folder and on the classpath
+     *
+     * @param hierarchy the class hierarchy
+     * @return the names of the matching interfaces
+     * @throws IOException if the classpath can not be listed
+     */
+    Set<String> resolve(ClassHierarchy hierarchy) throws IOException {
+        Set<String> serviceNames = new TreeSet<String>();
+        if (isEmpty()) {
+            return serviceNames;
+        }
+        ClassNameFilter patternFilter = ClassNameFilter.compile(patterns.toArray(new String[patterns.size()]), null);
+        ClassNameFilter listingFilter = annotationTypes.isEmpty() ? patternFilter : ClassNameFilter.compile(null, null);
+        for (String interfaceName : hierarchy.findInterfaces(listingFilter, getPackages())) {
+            if (!patterns.isEmpty() && patternFilter.accepts(interfaceName)) {
+                serviceNames.add(interfaceName);
+            } else if (isAnnotated(hierarchy.find(interfaceName))) {
+                serviceNames.add(interfaceName);
+            }
+        }
+        return serviceNames;
+    }
+
+    private boolean isAnnotated(ClassInfo info) {
+        for (String annotationType : info.getAnnotationTypes()) {
+            if (annotationTypes.contains(annotationType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getPatternCount() {
+        return patterns.size();
+    }
+
+    int getAnnotationCount() {
+        return annotationTypes.size();
+    }
+}
@@ -15,23 +15,64 @@
  */
 package eu.somatik.maven.serviceloader;
 
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.ReflectionUtils;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.sonatype.plexus.build.incremental.BuildContext;
 import org.sonatype.plexus.build.incremental.DefaultBuildContext;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.ToolProvider;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ServiceloaderMojoTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, File> remoteFiles = new HashMap<>();
+
     @Test
     public void testListCompiledClasses() throws Exception {
 	BuildContext buildContext = new DefaultBuildContext();
@@ -48,6 +89,28 @@ public class ServiceloaderMojoTest {
         assertTrue("missing class", list.contains("com.baz.BazExt2"));
     }
 
+    @Test
+    public void testListCompiledClassesInScanPackages() throws Exception {
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "scanPackages", new String[]{"com.foo"});
+        List<String> list = mojo.listCompiledClasses(new File("target/test-classes"));
+        assertEquals(new HashSet<>(Arrays.asList("com.foo.AbstractFoo", "com.foo.FooImpl", "com.foo.FooImpl2", "com.foo.bar.Hello")),
+                new HashSet<>(list));
+
+        // includes with a package narrow the walk down further
+        ReflectionUtils.setVariableValueInObject(mojo, "includes", new String[]{"com.foo.bar.*", "com.baz.*"});
+        assertEquals(Collections.singletonList("com.foo.bar"), mojo.getScanRoots());
+        assertEquals(Collections.singletonList("com.foo.bar.Hello"), mojo.listCompiledClasses(new File("target/test-classes")));
+
+        // an include without a package needs the whole folder
+        ReflectionUtils.setVariableValueInObject(mojo, "scanPackages", null);
+        ReflectionUtils.setVariableValueInObject(mojo, "includes", new String[]{"com.baz.*", "*2"});
+        assertEquals(null, mojo.getScanRoots());
+        ReflectionUtils.setVariableValueInObject(mojo, "includes", new String[]{"com.baz.Baz*", "com.b*"});
+        assertEquals(Collections.singletonList("com"), mojo.getScanRoots());
+    }
+
     @Test
     public void testMojoWithExcludes() throws MojoExecutionException, IllegalAccessException, IOException {
         BuildContext buildContext = new DefaultBuildContext();
@@ -154,4 +217,1149 @@ public class ServiceloaderMojoTest {
         ReflectionUtils.setVariableValueInObject(mojo, "failOnMissingServiceClass", true);
         mojo.execute();
     }
+
+    @Test
+    public void testMojoWithReflectionScan() throws MojoExecutionException, IllegalAccessException, IOException {
+        BuildContext buildContext = new DefaultBuildContext();
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(buildContext);
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", new File("target/test-classes"));
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File("target/test-classes/META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", ServiceloaderMojo.SCAN_MODE_REFLECTION);
+        mojo.execute();
+
+        File serviceFile = new File("target/test-classes/META-INF/services/com.baz.Baz");
+
+        String serviceFileContents = FileUtils.fileRead(serviceFile);
+        Set<String> classNames = new HashSet<>(Arrays.asList(serviceFileContents.trim().split("\n")));
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.BazExt", "com.baz.BazExt2")), classNames);
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void testUnknownScanMode() throws MojoExecutionException, IllegalAccessException {
+        BuildContext buildContext = new DefaultBuildContext();
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(buildContext);
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", new File("target/test-classes"));
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File("target/test-classes/META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", "magic");
+        mojo.execute();
+    }
+
+    @Test
+    public void testMojoWithOverlappingIncludes() throws MojoExecutionException, IllegalAccessException, IOException {
+        BuildContext buildContext = new DefaultBuildContext();
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(buildContext);
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.foo.AbstractFoo"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", new File("target/test-classes"));
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File("target/test-classes/META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "includes", new String[]{"*2", "com.foo.*"});
+        ReflectionUtils.setVariableValueInObject(mojo, "excludes", new String[]{"*.FooImpl"});
+        mojo.execute();
+
+        File serviceFile = new File("target/test-classes/META-INF/services/com.foo.AbstractFoo");
+
+        String serviceFileContents = FileUtils.fileRead(serviceFile);
+        assertEquals("com.foo.FooImpl2\n", serviceFileContents);
+    }
+
+    @Test
+    public void testClassNameFilterMatchesSelectorUtils() {
+        String[] patterns = {"*", "com.*", "*2", "*Impl*", "com.?oo.*", "*.bar.*", "com.foo.FooImpl", "*o*o*", "?", "", "**.Baz", "c*m.b?z.*Ext?"};
+        String[] classNames = {"com.foo.FooImpl", "com.foo.FooImpl2", "com.baz.Baz", "com.baz.BazExt2", "com.foo.bar.Hello", "c", "", "com.b\u00e4z.Ext"};
+        for (String include : patterns) {
+            for (String exclude : patterns) {
+                ClassNameFilter filter = ClassNameFilter.compile(new String[]{include, "no.match"}, new String[]{exclude});
+                for (String className : classNames) {
+                    boolean expected = SelectorUtils.match(include, className) && !SelectorUtils.match(exclude, className);
+                    assertEquals(include + " / " + exclude + " / " + className, expected, filter.accepts(className));
+                }
+            }
+        }
+        assertTrue(ClassNameFilter.compile(null, new String[0]).accepts("com.foo.FooImpl"));
+        assertFalse(ClassNameFilter.compile(null, new String[]{"com.*"}).accepts("com.foo.FooImpl"));
+    }
+
+    @Test
+    public void testServiceIndex() {
+        ServiceIndex<String> index = new ServiceIndex<>(Arrays.asList("c.Third", "a.First", "b.Second"));
+        assertEquals(Arrays.asList("c.Third", "b.Second"),
+                index.match(Arrays.asList("java.lang.Object", "b.Second", "x.Other", "c.Third")));
+        assertTrue(index.match(Collections.singletonList("java.lang.Object")).isEmpty());
+    }
+
+    @Test
+    public void testParseClassFile() throws IOException {
+        ClassInfo info = parse("com/foo/FooImpl.class");
+        assertEquals("com.foo.FooImpl", info.getName());
+        assertEquals("com.foo.AbstractFoo", info.getSuperName());
+        assertEquals(0, info.getInterfaces().length);
+        assertTrue(info.isConcretePublicClass());
+
+        ClassInfo abstractInfo = parse("com/foo/AbstractFoo.class");
+        assertEquals("java.lang.Object", abstractInfo.getSuperName());
+        assertFalse(abstractInfo.isConcretePublicClass());
+    }
+
+    @Test
+    public void testClassHierarchyResolvesClasspathLazily() throws IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/foo/FooImpl.class");
+        File dependency = copyClasses(temporaryFolder.newFolder("dependency"), "com/foo/AbstractFoo.class");
+        final List<String> elements = Arrays.asList(classFolder.getPath(), dependency.getPath(), "never-resolved.jar");
+        final int[] resolved = new int[elements.size()];
+        ClassHierarchy.Classpath classpath = (ClassHierarchy.Classpath) Proxy.newProxyInstance(ClassHierarchy.class.getClassLoader(),
+                new Class<?>[]{ClassHierarchy.Classpath.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("size")) {
+                        return elements.size();
+                    }
+                    resolved[(Integer) args[0]]++;
+                    return elements.get((Integer) args[0]);
+                });
+        ClassHierarchy hierarchy = new ClassHierarchy(classFolder, classpath, null);
+        try {
+            assertEquals("com.foo.AbstractFoo", hierarchy.find("com.foo.FooImpl").getSuperName());
+            assertNotNull(hierarchy.find("java.lang.Object"));
+            assertEquals(Arrays.asList(0, 0, 0), Arrays.asList(resolved[0], resolved[1], resolved[2]));
+
+            // the walk stops at the element holding the class
+            assertNotNull(hierarchy.find("com.foo.AbstractFoo"));
+            assertEquals(Arrays.asList(1, 1, 0), Arrays.asList(resolved[0], resolved[1], resolved[2]));
+
+            // other JDK types are found on the platform before the rest of the classpath is resolved
+            assertNotNull(hierarchy.find("javax.sql.DataSource"));
+            assertNotNull(hierarchy.find("org.w3c.dom.Node"));
+            assertEquals(Arrays.asList(1, 1, 0), Arrays.asList(resolved[0], resolved[1], resolved[2]));
+
+            // a missing class needs every element, each one is resolved once
+            assertNull(hierarchy.find("com.missing.Missing"));
+            assertNull(hierarchy.find("com.missing.Other"));
+            assertEquals(Arrays.asList(1, 1, 1), Arrays.asList(resolved[0], resolved[1], resolved[2]));
+        } finally {
+            hierarchy.close();
+        }
+    }
+
+    @Test
+    public void testRegistryClass() throws Exception {
+        Map<String, Collection<String>> services = new TreeMap<>();
+        services.put("com.foo.AbstractFoo", Arrays.asList("com.foo.FooImpl", "com.foo.FooImpl2"));
+        services.put("com.baz.Baz", Collections.singletonList("com.baz.BazExt"));
+        File folder = temporaryFolder.newFolder("registry");
+        File classFile = new File(folder, "com/example/ServiceRegistry.class");
+        ServiceFileWriter.write(classFile, RegistryClassWriter.generate("com.example.ServiceRegistry", services));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{folder.toURI().toURL()}, getClass().getClassLoader())) {
+            Method load = loader.loadClass("com.example.ServiceRegistry").getMethod("load", Class.class);
+            List<?> foos = (List<?>) load.invoke(null, com.foo.AbstractFoo.class);
+            assertEquals(2, foos.size());
+            assertEquals(com.foo.FooImpl.class, foos.get(0).getClass());
+            assertEquals(com.foo.FooImpl2.class, foos.get(1).getClass());
+            assertNotSame(foos.get(0), ((List<?>) load.invoke(null, com.foo.AbstractFoo.class)).get(0));
+            assertEquals(com.baz.BazExt.class, ((List<?>) load.invoke(null, com.baz.Baz.class)).get(0).getClass());
+            assertTrue(((List<?>) load.invoke(null, Runnable.class)).isEmpty());
+        }
+    }
+
+    @Test
+    public void testJarIndexCache() throws IOException {
+        File jar = createJar(temporaryFolder.newFile("foo.jar"), "com/foo/AbstractFoo.class", "com/foo/FooImpl.class");
+        File indexDirectory = temporaryFolder.newFolder("index");
+
+        JarIndex index = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(jar);
+        assertEquals(2, index.size());
+        assertEquals("com.foo.AbstractFoo", index.get("com.foo.FooImpl").getSuperName());
+        assertEquals(1, indexDirectory.list().length);
+
+        // the second lookup is served from disk
+        JarIndex cached = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(jar);
+        assertEquals(2, cached.size());
+        assertEquals("com.foo.AbstractFoo", cached.get("com.foo.FooImpl").getSuperName());
+        assertTrue(cached.get("com.foo.FooImpl").isConcretePublicClass());
+        assertFalse(cached.get("com.foo.AbstractFoo").isConcretePublicClass());
+
+        // a touched jar with the same entries keeps its index
+        File indexFile = indexDirectory.listFiles()[0];
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        JarIndex touched = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(jar);
+        assertEquals("com.foo.AbstractFoo", touched.get("com.foo.FooImpl").getSuperName());
+        DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+        try {
+            in.readInt();
+            in.readUTF();
+            assertEquals(jar.length(), in.readLong());
+            assertEquals(jar.lastModified(), in.readLong());
+        } finally {
+            in.close();
+        }
+
+        // a corrupt string table is rebuilt instead of failing the build
+        byte[] bytes = Files.readAllBytes(indexFile.toPath());
+        int stringCount = 4 + 2 + jar.getAbsolutePath().getBytes("UTF-8").length + 8 + 8 + 2 + 40;
+        Arrays.fill(bytes, stringCount, stringCount + 4, (byte) 0xFF);
+        Files.write(indexFile.toPath(), bytes);
+        JarIndex rebuilt = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(jar);
+        assertEquals(2, rebuilt.size());
+        assertEquals("com.foo.AbstractFoo", rebuilt.get("com.foo.FooImpl").getSuperName());
+    }
+
+    @Test
+    public void testJarIndexCachePrunesRemovedJars() throws IOException {
+        File removed = createJar(temporaryFolder.newFile("removed.jar"), "com/foo/AbstractFoo.class");
+        File kept = createJar(temporaryFolder.newFile("kept.jar"), "com/bar/Bar.class");
+        File indexDirectory = temporaryFolder.newFolder("index");
+        JarIndexCache cache = new JarIndexCache(indexDirectory, null, new SystemStreamLog());
+        cache.get(removed);
+        cache.get(kept);
+        assertEquals(2, indexDirectory.list().length);
+
+        assertTrue(removed.delete());
+        File added = createJar(temporaryFolder.newFile("added.jar"), "com/baz/Baz.class");
+        new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(added);
+        assertEquals(2, indexDirectory.list().length);
+        assertNotNull(new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(kept).get("com.bar.Bar"));
+    }
+
+    @Test
+    public void testJarIndexSkipsUnreadableClasses() throws IOException {
+        File jar = temporaryFolder.newFile("broken.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new JarEntry("com/foo/Broken.class"));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0});
+            out.closeEntry();
+            out.putNextEntry(new JarEntry("com/foo/AbstractFoo.class"));
+            out.write(Files.readAllBytes(new File("target/test-classes/com/foo/AbstractFoo.class").toPath()));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        JarIndex index = new JarIndexCache(temporaryFolder.newFolder("index"), null, new SystemStreamLog()).get(jar);
+        assertEquals(1, index.size());
+        assertNotNull(index.get("com.foo.AbstractFoo"));
+    }
+
+    @Test
+    public void testJarIndexMemoryCache() throws IOException {
+        File jar = createJar(temporaryFolder.newFile("foo.jar"), "com/foo/AbstractFoo.class", "com/foo/FooImpl.class");
+        File indexDirectory = temporaryFolder.newFolder("index");
+        JarIndexMemoryCache memoryCache = new JarIndexMemoryCache(1024 * 1024);
+
+        JarIndex index = new JarIndexCache(indexDirectory, memoryCache, new SystemStreamLog()).get(jar);
+        assertSame(index, new JarIndexCache(indexDirectory, memoryCache, new SystemStreamLog()).get(jar));
+        assertEquals(index.estimatedSize(), memoryCache.size());
+
+        // a changed jar is read again
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        assertNotSame(index, new JarIndexCache(indexDirectory, memoryCache, new SystemStreamLog()).get(jar));
+
+        // the least recently used index is evicted
+        index = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(jar);
+        File other = createJar(temporaryFolder.newFile("bar.jar"), "com/bar/Bar.class");
+        JarIndex otherIndex = new JarIndexCache(indexDirectory, null, new SystemStreamLog()).get(other);
+        memoryCache = new JarIndexMemoryCache(otherIndex.estimatedSize());
+        memoryCache.put(jar.getAbsolutePath(), jar.length(), jar.lastModified(), index);
+        memoryCache.put(other.getAbsolutePath(), other.length(), other.lastModified(), otherIndex);
+        assertEquals(otherIndex.estimatedSize(), memoryCache.size());
+        assertSame(otherIndex, memoryCache.get(other.getAbsolutePath(), other.length(), other.lastModified()));
+        assertNull(memoryCache.get(jar.getAbsolutePath(), jar.length(), jar.lastModified()));
+
+        // a smaller limit asked for by another execution does not evict anything, a larger one applies to all
+        memoryCache.requestLimit(0);
+        assertSame(otherIndex, memoryCache.get(other.getAbsolutePath(), other.length(), other.lastModified()));
+        memoryCache.requestLimit(1024 * 1024);
+        new JarIndexCache(indexDirectory, memoryCache, new SystemStreamLog()).get(jar);
+        assertEquals(otherIndex.estimatedSize() + index.estimatedSize(), memoryCache.size());
+    }
+
+    @Test
+    public void testMojoWithJarIndex() throws MojoExecutionException, IllegalAccessException, IOException {
+        File jar = createJar(temporaryFolder.newFile("baz.jar"), "com/baz/Baz.class");
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/BazExt.class");
+        File indexDirectory = temporaryFolder.newFolder("index");
+        BuildContext buildContext = new DefaultBuildContext();
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(buildContext);
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.singletonList(jar.getPath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "jarIndex", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "jarIndexDirectory", indexDirectory);
+        mojo.execute();
+
+        File serviceFile = new File(classFolder, "META-INF/services/com.baz.Baz");
+
+        String serviceFileContents = FileUtils.fileRead(serviceFile);
+        assertEquals("com.baz.BazExt\n", serviceFileContents);
+        assertEquals(1, indexDirectory.list().length);
+    }
+
+    private static File copyClasses(File folder, String... classFiles) throws IOException {
+        for (String classFile : classFiles) {
+            FileUtils.copyFile(new File("target/test-classes", classFile), new File(folder, classFile));
+        }
+        return folder;
+    }
+
+    @Test
+    public void testScanDependencies() throws IOException {
+        File jar = createJar(temporaryFolder.newFile("ext.jar"), "com/baz/BazExt2.class", "com/foo/FooImpl.class");
+        DefaultArtifact artifact = new DefaultArtifact("com.acme", "ext", "1.0", "compile", "jar", null, artifactHandler());
+        artifact.setFile(jar);
+        List<DefaultArtifact> artifacts = Collections.singletonList(artifact);
+
+        assertTrue(ServiceloaderMojo.selectDependencyJars(artifacts, new String[]{"com.other:*"}).isEmpty());
+        assertEquals(Collections.singletonList(jar), ServiceloaderMojo.selectDependencyJars(artifacts, new String[]{"com.acme:*"}));
+
+        // only the names are read, limited to the scanned packages
+        final List<String> classNames = new ArrayList<>();
+        JarWalker.walk(jar, Collections.singletonList("com.baz"),
+                (className, lastModified, length) -> classNames.add(className));
+        assertEquals(Collections.singletonList("com.baz.BazExt2"), classNames);
+    }
+
+    @Test
+    public void testScannedJarWithoutIndexIsNotIndexed() throws IOException {
+        File jar = createJar(temporaryFolder.newFile("ext.jar"), "com/baz/BazExt2.class", "com/foo/FooImpl.class");
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class");
+        File indexDirectory = temporaryFolder.newFolder("index");
+        List<String> classpath = Collections.singletonList(jar.getPath());
+
+        // the candidate is read from the jar, nothing else in it
+        ClassHierarchy hierarchy = new ClassHierarchy(classFolder, classpath, new JarIndexCache(indexDirectory, null, new SystemStreamLog()));
+        try {
+            hierarchy.addScannedJars(Collections.singletonList(jar));
+            assertTrue(hierarchy.getSupertypes(hierarchy.find("com.baz.BazExt2")).contains("com.baz.Baz"));
+            assertEquals(0, indexDirectory.list().length);
+        } finally {
+            hierarchy.close();
+        }
+
+        // once another lookup indexed the jar the index is used
+        JarIndexCache indexCache = new JarIndexCache(indexDirectory, null, new SystemStreamLog());
+        indexCache.get(jar);
+        hierarchy = new ClassHierarchy(classFolder, classpath, indexCache);
+        try {
+            hierarchy.addScannedJars(Collections.singletonList(jar));
+            assertNotNull(hierarchy.find("com.baz.BazExt2"));
+            assertEquals(0, hierarchy.getParsedCount());
+        } finally {
+            hierarchy.close();
+        }
+    }
+
+    private static ArtifactHandler artifactHandler() {
+        return (ArtifactHandler) Proxy.newProxyInstance(ArtifactHandler.class.getClassLoader(), new Class<?>[]{ArtifactHandler.class},
+                (proxy, method, args) -> method.getReturnType() == boolean.class ? method.getName().equals("isAddedToClasspath")
+                        : method.getName().equals("getClassifier") ? null : "jar");
+    }
+
+    @Test
+    public void testLazyClasspathOnlyHoldsCompileDependencies() throws Exception {
+        File classFolder = temporaryFolder.newFolder("classes");
+        LazyServiceloaderMojo mojo = lazyMojo(classFolder, temporaryFolder.newFolder("repository"), new ArrayList<>(),
+                artifact("a", "compile", null), artifact("b", "provided", null), artifact("c", "system", null),
+                artifact("d", "test", null), artifact("e", "runtime", null));
+        assertEquals(4, mojo.getClasspathSize());
+        assertEquals(classFolder.getPath(), mojo.resolveClasspathElement(0));
+    }
+
+    @Test
+    public void testLazyGoalResolvesNothingForLocalAndJdkSupertypes() throws Exception {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt.class");
+        List<List<String>> resolutions = new ArrayList<>();
+        File jar = createJar(temporaryFolder.newFile("bar.jar"), "com/bar/Bar.class");
+        LazyServiceloaderMojo mojo = lazyMojo(classFolder, temporaryFolder.newFolder("repository"), resolutions,
+                artifact("bar", "compile", jar), artifact("other", "compile", jar));
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        mojo.execute();
+        assertEquals("com.baz.BazExt\n", FileUtils.fileRead(new File(classFolder, "META-INF/services/com.baz.Baz")));
+        assertEquals(Collections.emptyList(), resolutions);
+    }
+
+    @Test
+    public void testLazyGoalResolvesJarsUpToTheSupertype() throws Exception {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/foo/FooImpl.class");
+        List<List<String>> resolutions = new ArrayList<>();
+        LazyServiceloaderMojo mojo = lazyMojo(classFolder, temporaryFolder.newFolder("repository"), resolutions,
+                artifact("bar", "compile", createJar(temporaryFolder.newFile("bar.jar"), "com/bar/Bar.class")),
+                artifact("foo", "compile", createJar(temporaryFolder.newFile("foo.jar"), "com/foo/AbstractFoo.class")),
+                artifact("baz", "compile", createJar(temporaryFolder.newFile("baz.jar"), "com/baz/Baz.class")));
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.foo.AbstractFoo"});
+        mojo.execute();
+        assertEquals("com.foo.FooImpl\n", FileUtils.fileRead(new File(classFolder, "META-INF/services/com.foo.AbstractFoo")));
+        // one jar at a time, and only those in front of the supertype
+        assertEquals(Arrays.asList(Collections.singletonList("bar"), Collections.singletonList("foo")), resolutions);
+    }
+
+    @Test
+    public void testLazyFingerprintUsesTheLocalRepository() throws Exception {
+        File repository = temporaryFolder.newFolder("repository");
+        List<List<String>> resolutions = new ArrayList<>();
+        LazyServiceloaderMojo mojo = lazyMojo(temporaryFolder.newFolder("classes"), repository, resolutions,
+                artifact("foo", "compile", createJar(temporaryFolder.newFile("foo.jar"), "com/foo/AbstractFoo.class")));
+
+        Fingerprint missing = new Fingerprint();
+        mojo.addClasspath(missing);
+        FileUtils.copyFile(createJar(temporaryFolder.newFile("local.jar"), "com/foo/AbstractFoo.class"), new File(repository, "foo.jar"));
+        Fingerprint present = new Fingerprint();
+        mojo.addClasspath(present);
+        Fingerprint again = new Fingerprint();
+        mojo.addClasspath(again);
+
+        String presentHex = present.toHex();
+        assertFalse(missing.toHex().equals(presentHex));
+        assertEquals(presentHex, again.toHex());
+        assertEquals(Collections.emptyList(), resolutions);
+    }
+
+    @Test
+    public void testLazyGoalOnlyResolvesScannedDependencies() throws Exception {
+        List<List<String>> resolutions = new ArrayList<>();
+        File jar = createJar(temporaryFolder.newFile("ext.jar"), "com/baz/BazExt2.class");
+        LazyServiceloaderMojo mojo = lazyMojo(temporaryFolder.newFolder("classes"), temporaryFolder.newFolder("repository"),
+                resolutions, artifact("api", "compile", jar), artifact("ext", "compile", jar), artifact("other", "compile", jar));
+        ReflectionUtils.setVariableValueInObject(mojo, "scanDependencies", new String[]{"com.acme:ext"});
+        assertEquals(Collections.singletonList(jar), mojo.getDependencyJars());
+        assertEquals(Collections.singletonList(Collections.singletonList("ext")), resolutions);
+    }
+
+    /**
+     * An artifact of the com.acme group, resolving it yields the file
+     */
+    private DefaultArtifact artifact(String artifactId, String scope, File file) {
+        if (file != null) {
+            remoteFiles.put(artifactId, file);
+        }
+        return new DefaultArtifact("com.acme", artifactId, "1.0", scope, "jar", null, artifactHandler());
+    }
+
+    /**
+     * The lazy goal with stubs for the repository system, every resolveArtifacts call adds the
+     * artifact ids it asked for to the resolutions
+     */
+    private LazyServiceloaderMojo lazyMojo(File classFolder, File localRepository, List<List<String>> resolutions,
+                                                  DefaultArtifact... artifacts) throws IllegalAccessException {
+        RepositorySystem repositorySystem = (RepositorySystem) Proxy.newProxyInstance(RepositorySystem.class.getClassLoader(),
+                new Class<?>[]{RepositorySystem.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("resolveArtifacts")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    List<String> ids = new ArrayList<>();
+                    List<ArtifactResult> results = new ArrayList<>();
+                    for (Object element : (Collection<?>) args[1]) {
+                        ArtifactRequest request = (ArtifactRequest) element;
+                        ids.add(request.getArtifact().getArtifactId());
+                        File file = remoteFiles.get(request.getArtifact().getArtifactId());
+                        results.add(new ArtifactResult(request).setArtifact(request.getArtifact().setFile(file)));
+                    }
+                    resolutions.add(ids);
+                    return results;
+                });
+        LocalRepositoryManager localRepositoryManager = (LocalRepositoryManager) Proxy.newProxyInstance(
+                LocalRepositoryManager.class.getClassLoader(), new Class<?>[]{LocalRepositoryManager.class},
+                (proxy, method, args) -> ((org.eclipse.aether.artifact.Artifact) args[0]).getArtifactId() + ".jar");
+        RepositorySystemSession session = (RepositorySystemSession) Proxy.newProxyInstance(
+                RepositorySystemSession.class.getClassLoader(), new Class<?>[]{RepositorySystemSession.class},
+                (proxy, method, args) -> method.getName().equals("getLocalRepository") ? new LocalRepository(localRepository)
+                        : method.getName().equals("getLocalRepositoryManager") ? localRepositoryManager : null);
+
+        LazyServiceloaderMojo mojo = new LazyServiceloaderMojo(repositorySystem);
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "artifacts",
+                new LinkedHashSet<>(Arrays.<org.apache.maven.artifact.Artifact>asList(artifacts)));
+        ReflectionUtils.setVariableValueInObject(mojo, "repositorySession", session);
+        ReflectionUtils.setVariableValueInObject(mojo, "remoteRepositories", Collections.<RemoteRepository>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        return mojo;
+    }
+
+    @Test
+    public void testIncrementalScan() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"),
+                "com/baz/Baz.class", "com/baz/BazExt.class", "com/baz/BazExt2.class");
+        File workDirectory = temporaryFolder.newFolder("work");
+        File serviceFile = new File(classFolder, "META-INF/services/com.baz.Baz");
+
+        executeIncremental(classFolder, workDirectory);
+        assertTrue(new File(workDirectory, "incremental.state").isFile());
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.BazExt", "com.baz.BazExt2")), readLines(serviceFile));
+
+        // unchanged classes are taken from the state
+        executeIncremental(classFolder, workDirectory);
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.BazExt", "com.baz.BazExt2")), readLines(serviceFile));
+        assertTrue(FileUtils.fileRead(new File(workDirectory, "report.json")).contains("\"classesReused\": 3"));
+
+        // unchanged classes with a changed supertype are checked again
+        File service = new File(classFolder, "com/baz/Baz.class");
+        assertTrue(service.setLastModified(service.lastModified() + 2000));
+        executeIncremental(classFolder, workDirectory);
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.BazExt", "com.baz.BazExt2")), readLines(serviceFile));
+        assertTrue(FileUtils.fileRead(new File(workDirectory, "report.json")).contains("\"classesReused\": 0"));
+
+        // a deleted class disappears, a replaced one is checked again
+        assertTrue(new File(classFolder, "com/baz/BazExt2.class").delete());
+        FileUtils.copyFile(new File("target/test-classes/com/bar/Bar.class"), new File(classFolder, "com/baz/BazExt.class"));
+        executeIncremental(classFolder, workDirectory);
+        assertEquals("", FileUtils.fileRead(serviceFile));
+    }
+
+    @Test
+    public void testIncrementalStateWithLargeClasspath() throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        for (int i = 0; i < 2000; i++) {
+            fingerprint.add("/home/builder/.m2/repository/com/acme/module-" + i + "/1.0/module-" + i + "-1.0.jar");
+        }
+        IncrementalState state = new IncrementalState(fingerprint);
+        state.put("com.baz.BazExt", 1L, 2L);
+        File stateFile = new File(temporaryFolder.newFolder("work"), "incremental.state");
+        state.write(stateFile);
+
+        IncrementalState read = IncrementalState.read(stateFile);
+        assertNotNull(read);
+        assertEquals(state.getFingerprint(), read.getFingerprint());
+        assertTrue(read.get("com.baz.BazExt").isUpToDate(1L, 2L));
+    }
+
+    @Test
+    public void testUpToDateCheck()throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt.class");
+        File workDirectory = temporaryFolder.newFolder("work");
+        File serviceFile = new File(classFolder, "META-INF/services/com.baz.Baz");
+
+        executeUpToDateCheck(classFolder, workDirectory);
+        assertEquals("com.baz.BazExt\n", FileUtils.fileRead(serviceFile));
+
+        // nothing changed so the execution is skipped and the file is left alone
+        FileUtils.fileWrite(serviceFile, "untouched");
+        executeUpToDateCheck(classFolder, workDirectory);
+        assertEquals("untouched", FileUtils.fileRead(serviceFile));
+
+        // a new class is picked up
+        FileUtils.copyFile(new File("target/test-classes/com/baz/BazExt2.class"), new File(classFolder, "com/baz/BazExt2.class"));
+        executeUpToDateCheck(classFolder, workDirectory);
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.BazExt", "com.baz.BazExt2")), readLines(serviceFile));
+
+        // so is a missing output file
+        assertTrue(serviceFile.delete());
+        executeUpToDateCheck(classFolder, workDirectory);
+        assertTrue(serviceFile.isFile());
+    }
+
+    private void executeUpToDateCheck(File classFolder, File workDirectory) throws MojoExecutionException, IllegalAccessException {
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "upToDateCheck", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", workDirectory);
+        mojo.execute();
+    }
+
+    @Test
+    public void testServiceFilesAreOnlyWrittenWhenChanged() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt2.class",
+                "com/baz/BazExt.class", "com/foo/AbstractFoo.class", "com/foo/FooImpl.class");
+        File workDirectory = temporaryFolder.newFolder("work");
+        File bazFile = new File(classFolder, "META-INF/services/com.baz.Baz");
+        File fooFile = new File(classFolder, "META-INF/services/com.foo.AbstractFoo");
+
+        executeWithWorkDirectory(classFolder, workDirectory, "com.baz.Baz", "com.foo.AbstractFoo");
+        assertEquals("com.baz.BazExt\ncom.baz.BazExt2\n", FileUtils.fileRead(bazFile));
+        assertEquals("com.foo.FooImpl\n", FileUtils.fileRead(fooFile));
+
+        // the same content is not written again
+        assertTrue(bazFile.setLastModified(1000000L));
+        executeWithWorkDirectory(classFolder, workDirectory, "com.baz.Baz", "com.foo.AbstractFoo");
+        assertEquals(1000000L, bazFile.lastModified());
+
+        // the file of a service that is no longer configured is removed
+        executeWithWorkDirectory(classFolder, workDirectory, "com.baz.Baz");
+        assertTrue(bazFile.isFile());
+        assertFalse(fooFile.exists());
+    }
+
+    private void executeWithWorkDirectory(File classFolder, File workDirectory, String... services) throws MojoExecutionException, IllegalAccessException {
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", services);
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", workDirectory);
+        mojo.execute();
+    }
+
+    @Test
+    public void testReportFile() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt.class",
+                "com/baz/BazExt2.class");
+        File reportFile = new File(temporaryFolder.getRoot(), "report.json");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "reportFile", reportFile);
+        mojo.execute();
+
+        String report = FileUtils.fileRead(reportFile);
+        assertTrue(report, report.contains("\"scanMode\": \"bytecode\""));
+        assertTrue(report, report.contains("\"classesDiscovered\": 3"));
+        assertTrue(report, report.contains("\"com.baz.Baz\": 2"));
+        assertTrue(report, report.contains("\"filesWritten\": 1"));
+    }
+
+    @Test
+    public void testNativeImageMetadata() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt.class",
+                "com/baz/BazExt2.class");
+        File nativeImageDirectory = new File(classFolder, "META-INF/native-image/com.baz/baz");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "nativeImage", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "nativeImageDirectory", nativeImageDirectory);
+        mojo.execute();
+
+        String reflectConfig = FileUtils.fileRead(new File(nativeImageDirectory, "reflect-config.json"));
+        assertTrue(reflectConfig, reflectConfig.contains("\"name\": \"com.baz.BazExt\""));
+        assertTrue(reflectConfig, reflectConfig.contains("\"name\": \"com.baz.BazExt2\""));
+        assertTrue(reflectConfig, reflectConfig.contains("\"<init>\""));
+        assertFalse(reflectConfig, reflectConfig.contains("\"com.baz.Baz\""));
+        String resourceConfig = FileUtils.fileRead(new File(nativeImageDirectory, "resource-config.json"));
+        assertTrue(resourceConfig, resourceConfig.contains("\"\\\\QMETA-INF/services/com.baz.Baz\\\\E\""));
+    }
+
+    @Test
+    public void testModuleInfoProvides() throws Exception {
+        File classFolder = compile("module",
+                "module-info.java", "module m { uses p.S; provides p.S with p.Old; }",
+                "p/S.java", "package p; public interface S {}",
+                "p/Old.java", "package p; public class Old implements S {}",
+                "p/Impl.java", "package p; public class Impl implements S {}");
+        File descriptor = new File(classFolder, "module-info.class");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"p.S"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "moduleInfo", "verify");
+        try {
+            mojo.execute();
+            fail("p.Impl is not declared");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("p.S: found [p.Impl, p.Old], declared [p.Old]"));
+        }
+
+        ReflectionUtils.setVariableValueInObject(mojo, "moduleInfo", "update");
+        mojo.execute();
+        ModuleDescriptor module;
+        try (FileInputStream in = new FileInputStream(descriptor)) {
+            module = ModuleDescriptor.read(in);
+        }
+        assertEquals("m", module.name());
+        assertEquals(Collections.singleton("p.S"), module.uses());
+        assertEquals(1, module.provides().size());
+        assertEquals(Arrays.asList("p.Impl", "p.Old"), module.provides().iterator().next().providers());
+
+        ReflectionUtils.setVariableValueInObject(mojo, "moduleInfo", "verify");
+        mojo.execute();
+    }
+
+    @Test
+    public void testProviderIndex() throws Exception {
+        File classFolder = compile("index",
+                "jakarta/annotation/Priority.java", PRIORITY_SOURCE,
+                "q/Named.java", "package q; public @interface Named { String value(); int[] sizes() default {}; "
+                        + "Class<?> type() default Object.class; java.lang.annotation.ElementType target() default java.lang.annotation.ElementType.TYPE; }",
+                "q/S.java", "package q; public interface S {}",
+                "q/Fast.java", "package q; public interface Fast extends S {}",
+                "q/A.java", "package q; @Named(value = \"a=b\", sizes = {1, 2}, type = String[].class, "
+                        + "target = java.lang.annotation.ElementType.FIELD) @jakarta.annotation.Priority(10) public class A implements Fast, Runnable { public void run() {} }",
+                "q/B.java", "package q; public class B implements S {}");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"q.S"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "providerIndex", true);
+        mojo.execute();
+
+        Properties index = new Properties();
+        assertEquals(Collections.singletonList("q.S"), Arrays.asList(new File(classFolder, "META-INF/services").list()));
+        try (FileInputStream in = new FileInputStream(new File(classFolder, "META-INF/serviceloader/q.S.index"))) {
+            index.load(in);
+        }
+        assertEquals("q.Fast", index.getProperty("q.A.interfaces"));
+        assertEquals("10", index.getProperty("q.A.priority"));
+        assertEquals("", index.getProperty("q.A.@q.Named"));
+        assertEquals("a=b", index.getProperty("q.A.@q.Named.value"));
+        assertEquals("1,2", index.getProperty("q.A.@q.Named.sizes"));
+        assertEquals("java.lang.String[]", index.getProperty("q.A.@q.Named.type"));
+        assertEquals("FIELD", index.getProperty("q.A.@q.Named.target"));
+        assertEquals("", index.getProperty("q.B.interfaces"));
+        assertNull(index.getProperty("q.B.priority"));
+        assertEquals("10", index.getProperty("q.A.@jakarta.annotation.Priority.value"));
+        assertEquals(10, index.size());
+    }
+
+    @Test
+    public void testProviderOrder() throws Exception {
+        File classFolder = compile("order",
+                "jakarta/annotation/Priority.java", PRIORITY_SOURCE,
+                "q/S.java", "package q; public interface S {}",
+                "q/A.java", "package q; @jakarta.annotation.Priority(10) public class A implements S {}",
+                "q/B.java", "package q; @jakarta.annotation.Priority(5) public class B implements S {}",
+                "q/C.java", "package q; public class C implements S {}",
+                "q/D.java", "package q; public class D implements S {}",
+                "q/E.java", "package q; @jakarta.annotation.Priority(1) public class E implements S {}");
+        File serviceFile = new File(classFolder, "META-INF/services/q.S");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"q.S"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", serviceFile.getParentFile());
+        mojo.execute();
+        assertEquals("q.A\nq.B\nq.C\nq.D\nq.E\n", FileUtils.fileRead(serviceFile));
+
+        ReflectionUtils.setVariableValueInObject(mojo, "priorityOrder", true);
+        mojo.execute();
+        assertEquals("q.E\nq.B\nq.A\nq.C\nq.D\n", FileUtils.fileRead(serviceFile));
+
+        ReflectionUtils.setVariableValueInObject(mojo, "providerOrder", new String[]{"q.D", "q.?"});
+        mojo.execute();
+        assertEquals("q.D\nq.E\nq.B\nq.A\nq.C\n", FileUtils.fileRead(serviceFile));
+    }
+
+    @Test
+    public void testProviderValidation() throws Exception {
+        File classFolder = compile("validation",
+                "q/S.java", "package q; public interface S {}",
+                "q/A.java", "package q; public class A implements S {}",
+                "q/NoConstructor.java", "package q; public class NoConstructor implements S { public NoConstructor(int size) {} }",
+                "q/Provided.java", "package q; public class Provided implements S { private Provided() {} "
+                        + "public static S provider() { return new Provided(); } }",
+                "q/Outer.java", "package q; public class Outer { public class Inner implements S {} }");
+        File serviceFile = new File(classFolder, "META-INF/services/q.S");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"q.S"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.singletonList(classFolder.getPath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", serviceFile.getParentFile());
+        mojo.execute();
+        assertEquals("q.A\nq.NoConstructor\nq.Outer$Inner\nq.Provided\n", FileUtils.fileRead(serviceFile));
+
+        // without a module the ServiceLoader does not call provider()
+        ReflectionUtils.setVariableValueInObject(mojo, "providerValidation", "exclude");
+        mojo.execute();
+        assertEquals("q.A\n", FileUtils.fileRead(serviceFile));
+
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", "reflection");
+        FileUtils.forceDelete(serviceFile);
+        mojo.execute();
+        assertEquals("q.A\n", FileUtils.fileRead(serviceFile));
+
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", "bytecode");
+        ReflectionUtils.setVariableValueInObject(mojo, "providerValidation", "fail");
+        try {
+            mojo.execute();
+            fail("q.NoConstructor can not be instantiated");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no public no-argument constructor"));
+        }
+    }
+
+    @Test
+    public void testProviderMethodOnlyCountsForModules() throws Exception {
+        File classFolder = compile("provider-method",
+                "module-info.java", "module m { uses p.S; }",
+                "p/S.java", "package p; public interface S {}",
+                "p/Impl.java", "package p; public class Impl implements S {}",
+                "p/Provided.java", "package p; public class Provided implements S { private Provided() {} "
+                        + "public static S provider() { return new Provided(); } }");
+        File serviceFile = new File(classFolder, "META-INF/services/p.S");
+        File nativeImageDirectory = new File(classFolder, "META-INF/native-image/p");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"p.S"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", serviceFile.getParentFile());
+        ReflectionUtils.setVariableValueInObject(mojo, "providerValidation", "exclude");
+        mojo.execute();
+        assertEquals("p.Impl\n", FileUtils.fileRead(serviceFile));
+
+        // the provides directives do use provider(), the registry and native-image metadata can not
+        ReflectionUtils.setVariableValueInObject(mojo, "moduleInfo", "update");
+        ReflectionUtils.setVariableValueInObject(mojo, "registryClass", "p.Registry");
+        ReflectionUtils.setVariableValueInObject(mojo, "nativeImage", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "nativeImageDirectory", nativeImageDirectory);
+        mojo.execute();
+        assertEquals("p.Impl\np.Provided\n", FileUtils.fileRead(serviceFile));
+        ModuleDescriptor module;
+        try (FileInputStream in = new FileInputStream(new File(classFolder, "module-info.class"))) {
+            module = ModuleDescriptor.read(in);
+        }
+        assertEquals(Arrays.asList("p.Impl", "p.Provided"), module.provides().iterator().next().providers());
+        String reflectConfig = FileUtils.fileRead(new File(nativeImageDirectory, NativeImageMetadata.REFLECT_CONFIG));
+        assertTrue(reflectConfig, reflectConfig.contains("\"p.Impl\""));
+        assertFalse(reflectConfig, reflectConfig.contains("p.Provided"));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classFolder.toURI().toURL()}, getClass().getClassLoader())) {
+            Method load = loader.loadClass("p.Registry").getMethod("load", Class.class);
+            List<?> providers = (List<?>) load.invoke(null, loader.loadClass("p.S"));
+            assertEquals(1, providers.size());
+            assertEquals("p.Impl", providers.get(0).getClass().getName());
+        }
+    }
+
+    @Test
+    public void testProviderAnnotations() throws Exception {
+        File classFolder = compile("annotations",
+                "r/ProviderFor.java", "package r; public @interface ProviderFor { Class<?>[] value(); }",
+                "r/S.java", "package r; public interface S {}",
+                "r/T.java", "package r; public interface T {}",
+                "r/A.java", "package r; @ProviderFor(S.class) public class A implements S {}",
+                "r/B.java", "package r; @ProviderFor({S.class, T.class}) public class B implements S, T {}",
+                "r/C.java", "package r; public class C implements S {}",
+                "r/Wrong.java", "package r; @ProviderFor(T.class) public class Wrong implements S {}");
+        File outputDirectory = new File(classFolder, "META-INF/services");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "providerAnnotations", new String[]{"r.ProviderFor"});
+        ReflectionUtils.setVariableValueInObject(mojo, "excludes", new String[]{"r.Wrong"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.singletonList(classFolder.getPath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", outputDirectory);
+        File reportFile = new File(temporaryFolder.getRoot(), "report.json");
+        ReflectionUtils.setVariableValueInObject(mojo, "reportFile", reportFile);
+        mojo.execute();
+        assertEquals("r.A\nr.B\n", FileUtils.fileRead(new File(outputDirectory, "r.S")));
+        assertEquals("r.B\n", FileUtils.fileRead(new File(outputDirectory, "r.T")));
+        // the annotations are read together with the headers, every class is walked and read once
+        String report = FileUtils.fileRead(reportFile);
+        assertTrue(report, report.contains("\"classesDiscovered\": 7"));
+        assertTrue(report, report.contains("\"classesChecked\": 6"));
+        assertTrue(report, report.contains("\"classesParsed\": 6"));
+
+        // the annotated services are kept in the incremental state
+        File workDirectory = temporaryFolder.newFolder("work");
+        ReflectionUtils.setVariableValueInObject(mojo, "incremental", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", workDirectory);
+        mojo.execute();
+        mojo.execute();
+        assertEquals("r.A\nr.B\n", FileUtils.fileRead(new File(outputDirectory, "r.S")));
+        assertEquals("r.B\n", FileUtils.fileRead(new File(outputDirectory, "r.T")));
+        report = FileUtils.fileRead(reportFile);
+        assertTrue(report, report.contains("\"classesReused\": 6"));
+        ReflectionUtils.setVariableValueInObject(mojo, "incremental", false);
+        ReflectionUtils.setVariableValueInObject(mojo, "reportFile", null);
+
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"r.S"});
+        mojo.execute();
+        assertEquals("r.A\nr.B\nr.C\n", FileUtils.fileRead(new File(outputDirectory, "r.S")));
+        assertEquals("r.B\n", FileUtils.fileRead(new File(outputDirectory, "r.T")));
+
+        ReflectionUtils.setVariableValueInObject(mojo, "excludes", null);
+        try {
+            mojo.execute();
+            fail("r.Wrong does not implement r.T");
+        } catch (MojoExecutionException e) {
+            assertEquals("r.Wrong is annotated as a provider of r.T but does not implement it", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testWildcardServices() throws Exception {
+        File classFolder = compile("wildcards",
+                "w/Spi.java", "package w; public @interface Spi {}",
+                "w/spi/A.java", "package w.spi; public interface A {}",
+                "w/spi/Marker.java", "package w.spi; public @interface Marker {}",
+                "w/spi/Hidden.java", "package w.spi; interface Hidden {}",
+                "w/spi/HiddenImpl.java", "package w.spi; public class HiddenImpl implements Hidden {}",
+                "w/spi/sub/B.java", "package w.spi.sub; public interface B {}",
+                "w/other/C.java", "package w.other; @w.Spi public interface C {}",
+                "w/other/D.java", "package w.other; public interface D {}",
+                "w/impl/Impl.java", "package w.impl; public class Impl implements w.spi.A, w.spi.sub.B, w.other.C, w.other.D {}");
+        File outputDirectory = new File(classFolder, "META-INF/services");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"w.spi.*", "@w.Spi"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.singletonList(classFolder.getPath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", outputDirectory);
+        mojo.execute();
+        String[] serviceFiles = outputDirectory.list();
+        Arrays.sort(serviceFiles);
+        assertEquals(Arrays.asList("w.other.C", "w.spi.A", "w.spi.sub.B"), Arrays.asList(serviceFiles));
+        assertEquals("w.impl.Impl\n", FileUtils.fileRead(new File(outputDirectory, "w.spi.sub.B")));
+
+        FileUtils.deleteDirectory(outputDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "scanMode", "reflection");
+        mojo.execute();
+        serviceFiles = outputDirectory.list();
+        Arrays.sort(serviceFiles);
+        assertEquals(Arrays.asList("w.other.C", "w.spi.A", "w.spi.sub.B"), Arrays.asList(serviceFiles));
+    }
+
+    @Test
+    public void testWildcardServicesUpToDateCheck() throws Exception {
+        File compiled = compile("wildcard-all",
+                "w/Spi.java", "package w; public @interface Spi {}",
+                "w/jar/J.java", "package w.jar; @w.Spi public interface J {}",
+                "w/dir/K.java", "package w.dir; @w.Spi public interface K {}",
+                "w/dir/L.java", "package w.dir; @w.Spi(/* now a service */) public interface L {}",
+                "w/impl/Impl.java", "package w.impl; public class Impl implements w.jar.J, w.dir.K {}",
+                "w/impl/Impl2.java", "package w.impl; public class Impl2 implements w.dir.L {}");
+        File plain = compile("wildcard-plain", "w/dir/L.java", "package w.dir; public interface L {}");
+        File jar = createJar(temporaryFolder.newFile("wildcard.jar"), compiled, "w/Spi.class", "w/jar/J.class");
+        File directory = temporaryFolder.newFolder("wildcard-directory");
+        FileUtils.copyFile(new File(compiled, "w/dir/K.class"), new File(directory, "w/dir/K.class"));
+        FileUtils.copyFile(new File(plain, "w/dir/L.class"), new File(directory, "w/dir/L.class"));
+        File classFolder = temporaryFolder.newFolder("wildcard-classes");
+        FileUtils.copyFile(new File(compiled, "w/impl/Impl.class"), new File(classFolder, "w/impl/Impl.class"));
+        FileUtils.copyFile(new File(compiled, "w/impl/Impl2.class"), new File(classFolder, "w/impl/Impl2.class"));
+        File outputDirectory = new File(classFolder, "META-INF/services");
+
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"@w.Spi"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath",
+                Arrays.asList(classFolder.getPath(), directory.getPath(), jar.getPath()));
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", outputDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "jarIndex", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "jarIndexDirectory", temporaryFolder.newFolder("wildcard-index"));
+        ReflectionUtils.setVariableValueInObject(mojo, "upToDateCheck", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", temporaryFolder.newFolder("wildcard-work"));
+        mojo.execute();
+        File serviceFile = new File(outputDirectory, "w.jar.J");
+        assertEquals("w.impl.Impl\n", FileUtils.fileRead(serviceFile));
+        assertEquals("w.impl.Impl\n", FileUtils.fileRead(new File(outputDirectory, "w.dir.K")));
+        assertFalse(new File(outputDirectory, "w.dir.L").exists());
+
+        // listing the classpath directory does not turn the check off
+        FileUtils.fileWrite(serviceFile, "untouched");
+        mojo.execute();
+        assertEquals("untouched", FileUtils.fileRead(serviceFile));
+
+        // an interface in the classpath directory that becomes a service is picked up
+        File annotated = new File(directory, "w/dir/L.class");
+        FileUtils.copyFile(new File(compiled, "w/dir/L.class"), annotated);
+        assertTrue(annotated.setLastModified(annotated.lastModified() + 10000L));
+        mojo.execute();
+        assertEquals("w.impl.Impl2\n", FileUtils.fileRead(new File(outputDirectory, "w.dir.L")));
+    }
+
+    private static final String PRIORITY_SOURCE = "package jakarta.annotation; "
+            + "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) public @interface Priority { int value(); }";
+
+    /**
+     * Compiles sources into a new class folder
+     *
+     * @param name the name of the folder
+     * @param pathsAndSources the path of each source file followed by its content
+     */
+    private File compile(String name, String... pathsAndSources) throws IOException {
+        File sources = temporaryFolder.newFolder(name + "-sources");
+        File classFolder = temporaryFolder.newFolder(name + "-classes");
+        List<String> arguments = new ArrayList<>(Arrays.asList("-d", classFolder.getPath()));
+        for (int i = 0; i < pathsAndSources.length; i += 2) {
+            writeSource(sources, pathsAndSources[i], pathsAndSources[i + 1]);
+            arguments.add(new File(sources, pathsAndSources[i]).getPath());
+        }
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(new String[0])));
+        return classFolder;
+    }
+
+    private static void writeSource(File sources, String path, String source) throws IOException {
+        File file = new File(sources, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, "UTF-8", source);
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class", "com/baz/BazExt.class");
+        File dump = new File(temporaryFolder.getRoot(), "scan.jfr");
+
+        Recording recording = new Recording();
+        try {
+            recording.enable("eu.somatik.serviceloader.ClassCheck").withThreshold(Duration.ZERO);
+            recording.enable("eu.somatik.serviceloader.DirectoryWalk");
+            recording.enable("eu.somatik.serviceloader.FileWrite");
+            recording.start();
+            executeWithThreads(classFolder, 1);
+            recording.stop();
+            recording.dump(dump.toPath());
+        } finally {
+            recording.close();
+        }
+
+        Set<String> eventTypes = new HashSet<>();
+        Set<String> checkedClasses = new HashSet<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+            eventTypes.add(event.getEventType().getName());
+            if (event.getEventType().getName().equals("eu.somatik.serviceloader.ClassCheck")) {
+                checkedClasses.add(event.getString("className"));
+            }
+        }
+        assertTrue(eventTypes.contains("eu.somatik.serviceloader.DirectoryWalk"));
+        assertTrue(eventTypes.contains("eu.somatik.serviceloader.FileWrite"));
+        assertEquals(new HashSet<>(Arrays.asList("com.baz.Baz", "com.baz.BazExt")), checkedClasses);
+    }
+
+    @Test
+    public void testProjectClassLoader() throws IOException {
+        File classFolder = temporaryFolder.newFolder("classes");
+        FileUtils.copyFile(new File("target/test-classes/com/baz/BazExt.class"), new File(classFolder, "gen/Ext.class"));
+        File jar = createJar(temporaryFolder.newFile("baz.jar"), "com/baz/Baz.class");
+        List<String> classpath = Arrays.asList(classFolder.getPath(), jar.getPath());
+
+        // closing releases the class path
+        ProjectClassLoader loader = ProjectClassLoader.create(classpath, classFolder, false);
+        assertNotNull(loader.getLoader().getResource("gen/Ext.class"));
+        loader.close();
+        assertNull(loader.getLoader().getResource("gen/Ext.class"));
+
+        // the jars are shared, also with a later execution
+        ProjectClassLoader first = ProjectClassLoader.create(classpath, classFolder, true);
+        ProjectClassLoader second = ProjectClassLoader.create(classpath, classFolder, true);
+        assertNotSame(first.getLoader(), second.getLoader());
+        assertSame(first.getLoader().getParent(), second.getLoader().getParent());
+        first.close();
+        second.close();
+        ProjectClassLoader third = ProjectClassLoader.create(classpath, classFolder, true);
+        assertSame(first.getLoader().getParent(), third.getLoader().getParent());
+        assertNotNull(third.getLoader().getResource("gen/Ext.class"));
+        third.close();
+    }
+
+    @Test
+    public void testProjectClassLoaderKeepsClasspathOrder() throws IOException {
+        File classFolder = temporaryFolder.newFolder("classes");
+        FileUtils.copyFile(new File("target/test-classes/com/baz/BazExt.class"), new File(classFolder, "com/baz/Baz.class"));
+        File sibling = temporaryFolder.newFolder("sibling");
+        FileUtils.copyFile(new File("target/test-classes/com/baz/Baz.class"), new File(sibling, "com/baz/Baz.class"));
+        FileUtils.copyFile(new File("target/test-classes/com/baz/Baz.class"), new File(sibling, "gen/Ext.class"));
+        FileUtils.copyFile(new File("target/test-classes/com/baz/BazExt.class"), new File(classFolder, "gen/Ext.class"));
+        File jar = createJar(temporaryFolder.newFile("baz.jar"), "com/baz/Baz.class", "com/baz/BazExt.class");
+
+        // the class folder still wins over the shared jars
+        ProjectClassLoader shared = ProjectClassLoader.create(Arrays.asList(classFolder.getPath(), jar.getPath()), classFolder, true);
+        assertEquals(new File(classFolder, "com/baz/Baz.class").toURI().toURL(), shared.getLoader().getResource("com/baz/Baz.class"));
+        shared.close();
+
+        // the jar may refer to a folder of another module that comes before it, so nothing is shared
+        List<String> classpath = Arrays.asList(classFolder.getPath(), sibling.getPath(), jar.getPath());
+        assertFalse(ProjectClassLoader.isShareable(classpath, classFolder));
+        ProjectClassLoader unshared = ProjectClassLoader.create(classpath, classFolder, true);
+        assertSame(ClassLoader.getSystemClassLoader(), unshared.getLoader().getParent());
+        assertEquals(3, unshared.getUrlCount());
+        assertEquals(new File(classFolder, "gen/Ext.class").toURI().toURL(), unshared.getLoader().getResource("gen/Ext.class"));
+        unshared.close();
+
+        // as may a jar for a folder that comes after it
+        assertFalse(ProjectClassLoader.isShareable(Arrays.asList(classFolder.getPath(), jar.getPath(), sibling.getPath()), classFolder));
+    }
+
+    @Test
+    public void testParallelScanKeepsOrder() throws MojoExecutionException, IllegalAccessException, IOException {
+        File classFolder = copyClasses(temporaryFolder.newFolder("classes"), "com/baz/Baz.class");
+        for (int i = 0; i < 600; i++) {
+            FileUtils.copyFile(new File("target/test-classes/com/baz/BazExt.class"), new File(classFolder, "com/baz/gen/Ext" + i + ".class"));
+        }
+        File serviceFile = new File(classFolder, "META-INF/services/com.baz.Baz");
+
+        executeWithThreads(classFolder, 1);
+        String serial = FileUtils.fileRead(serviceFile);
+        executeWithThreads(classFolder, 4);
+        String parallel = FileUtils.fileRead(serviceFile);
+
+        assertEquals(600, serial.split("\n").length);
+        assertEquals(serial, parallel);
+    }
+
+    private void executeWithThreads(File classFolder, int threads) throws MojoExecutionException, IllegalAccessException {
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "scanThreads", threads);
+        mojo.execute();
+    }
+
+    private void executeIncremental(File classFolder, File workDirectory) throws MojoExecutionException, IllegalAccessException {
+        ServiceloaderMojo mojo = new ServiceloaderMojo();
+        mojo.setBuildContext(new DefaultBuildContext());
+        ReflectionUtils.setVariableValueInObject(mojo, "services", new String[]{"com.baz.Baz"});
+        ReflectionUtils.setVariableValueInObject(mojo, "compileClasspath", Collections.<String>emptyList());
+        ReflectionUtils.setVariableValueInObject(mojo, "classFolder", classFolder);
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(classFolder, "META-INF/services"));
+        ReflectionUtils.setVariableValueInObject(mojo, "incremental", true);
+        ReflectionUtils.setVariableValueInObject(mojo, "workDirectory", workDirectory);
+        ReflectionUtils.setVariableValueInObject(mojo, "reportFile", new File(workDirectory, "report.json"));
+        mojo.execute();
+    }
+
+    private static Set<String> readLines(File file) throws IOException {
+        return new HashSet<>(Arrays.asList(FileUtils.fileRead(file).trim().split("\n")));
+    }
+
+    private static File createJar(File jar, String... classFiles) throws IOException {
+        return createJar(jar, new File("target/test-classes"), classFiles);
+    }
+
+    private static File createJar(File jar, File classFolder, String... classFiles) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (String classFile : classFiles) {
+                out.putNextEntry(new JarEntry(classFile));
+                out.write(Files.readAllBytes(new File(classFolder, classFile).toPath()));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static ClassInfo parse(String path) throws IOException {
+        FileInputStream in = new FileInputStream(new File("target/test-classes", path));
+        try {
+            return ClassFileParser.parse(in);
+        } finally {
+            in.close();
+        }
+    }
 }